@@ -0,0 +1,209 @@
+package pl.finder.elmer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Coalesces acknowledgements of deliveries on a single channel.
+ * Delivery tags of a channel are contiguous, so once all tags up to some tag have been acknowledged
+ * they are acked with single basicAck(tag, multiple = true), sent when batchSize tags are ready
+ * or on flush timer.
+ * Tags acknowledged out of order are held until preceding tags are acknowledged. When preceding tags are not
+ * acknowledged for whole flush interval, held tags are acked individually, so message which is never
+ * acknowledged does not stop acknowledgements of others.
+ * Negative acknowledgements are sent immediately and treated as individually acked tags.
+ * Multiple ack is always sent for a tag which has not been settled individually, as broker rejects acks
+ * of unknown tags. When too many tags are held behind unacknowledged tag, coalescing is disabled
+ * and each tag is acked individually.
+ */
+@Slf4j
+final class AckCoalescer implements AutoCloseable {
+    private static final int MaxHeldTags = 1 << 16;
+
+    private final Channel channel;
+    private final int batchSize;
+    private final ScheduledFuture<?> flushTask;
+    /**
+     * Tags above contiguousUpTo which has been acknowledged, bit i stands for tag contiguousUpTo + 1 + i.
+     */
+    private final BitSet held = new BitSet();
+    /**
+     * Held tags which has been acked individually.
+     */
+    private final BitSet sent = new BitSet();
+    private long contiguousUpTo;
+    private long ackedUpTo;
+    private long lastUnsent;
+    private long contiguousOnLastFlush;
+    private boolean coalescing = true;
+
+    private AckCoalescer(final Channel channel, final int batchSize, final Duration flushInterval) {
+        this.channel = channel;
+        this.batchSize = batchSize;
+        this.flushTask = ConsumptionExecutors.scheduler().scheduleWithFixedDelay(this::flushOnTimer,
+                flushInterval.toNanos(), flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    static AckCoalescer create(final Channel channel, final int batchSize, final Duration flushInterval) {
+        return new AckCoalescer(channel, batchSize, flushInterval);
+    }
+
+    /**
+     * Marks delivery as acknowledged.
+     *
+     * @param deliveryTag acknowledged delivery tag
+     */
+    synchronized void ack(final long deliveryTag) {
+        if (!coalescing) {
+            send(deliveryTag, false);
+            return;
+        }
+        if (deliveryTag <= contiguousUpTo) {
+            return;
+        }
+        final long offset = deliveryTag - contiguousUpTo - 1;
+        if (offset >= MaxHeldTags) {
+            disableCoalescing();
+            send(deliveryTag, false);
+            return;
+        }
+        held.set((int) offset);
+        advance();
+        if (contiguousUpTo - ackedUpTo >= batchSize) {
+            sendContiguous();
+        }
+    }
+
+    /**
+     * Sends negative acknowledgement of delivery.
+     *
+     * @param deliveryTag delivery tag
+     * @param requeue should delivery be requeued
+     */
+    synchronized void nack(final long deliveryTag, final boolean requeue) {
+        sendNack(deliveryTag, requeue);
+        if (!coalescing || deliveryTag <= contiguousUpTo) {
+            return;
+        }
+        final long offset = deliveryTag - contiguousUpTo - 1;
+        if (offset >= MaxHeldTags) {
+            disableCoalescing();
+            return;
+        }
+        held.set((int) offset);
+        sent.set((int) offset);
+        advance();
+    }
+
+    /**
+     * Sends acknowledgement of all tags acknowledged contiguously so far.
+     */
+    synchronized void flush() {
+        if (coalescing) {
+            sendContiguous();
+        }
+    }
+
+    private void advance() {
+        final int completed = held.nextClearBit(0);
+        if (completed == 0) {
+            return;
+        }
+        final int unsent = sent.previousClearBit(completed - 1);
+        if (unsent >= 0) {
+            lastUnsent = contiguousUpTo + 1 + unsent;
+        }
+        contiguousUpTo += completed;
+        shift(held, completed);
+        shift(sent, completed);
+    }
+
+    private static void shift(final BitSet bits, final int count) {
+        final BitSet shifted = bits.get(count, Math.max(bits.length(), count));
+        bits.clear();
+        bits.or(shifted);
+    }
+
+    private void sendContiguous() {
+        if (lastUnsent > ackedUpTo) {
+            send(lastUnsent, true);
+        }
+        ackedUpTo = contiguousUpTo;
+    }
+
+    private synchronized void flushOnTimer() {
+        if (!coalescing || !channel.isOpen()) {
+            return;
+        }
+        try {
+            sendContiguous();
+            final boolean stalled = contiguousUpTo == contiguousOnLastFlush;
+            contiguousOnLastFlush = contiguousUpTo;
+            if (!stalled) {
+                return;
+            }
+            for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+                if (!sent.get(i)) {
+                    send(contiguousUpTo + 1 + i, false);
+                    sent.set(i);
+                }
+            }
+        } catch (final RuntimeException e) {
+            log.warn("Could not flush acknowledgements", e);
+        }
+    }
+
+    private void disableCoalescing() {
+        log.warn(String.format("More than %d deliveries acknowledged after unacknowledged delivery: %d, "
+                + "acknowledgements will not be coalesced", MaxHeldTags, contiguousUpTo + 1));
+        sendContiguous();
+        for (int i = held.nextSetBit(0); i >= 0; i = held.nextSetBit(i + 1)) {
+            if (!sent.get(i)) {
+                send(contiguousUpTo + 1 + i, false);
+            }
+        }
+        held.clear();
+        sent.clear();
+        coalescing = false;
+        flushTask.cancel(false);
+    }
+
+    private void send(final long deliveryTag, final boolean multiple) {
+        try {
+            channel.basicAck(deliveryTag, multiple);
+        } catch (final IOException | ShutdownSignalException e) {
+            throw new IllegalStateException(String.format("Could not deliver ack for: %d", deliveryTag), e);
+        }
+    }
+
+    private void sendNack(final long deliveryTag, final boolean requeue) {
+        try {
+            channel.basicNack(deliveryTag, false, requeue);
+        } catch (final IOException | ShutdownSignalException e) {
+            throw new IllegalStateException(String.format("Could not deliver nack for: %d", deliveryTag), e);
+        }
+    }
+
+    /**
+     * Sends pending acknowledgements and stops flush timer.
+     */
+    @Override
+    public synchronized void close() {
+        flushTask.cancel(false);
+        if (coalescing && channel.isOpen()) {
+            try {
+                sendContiguous();
+            } catch (final RuntimeException e) {
+                log.warn("Could not flush acknowledgements", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package pl.finder.elmer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.rabbitmq.client.Channel;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.core.MessageContext;
+import pl.finder.elmer.subscription.AdaptiveConcurrencyOptions;
+import pl.finder.elmer.subscription.ConcurrencyAdjustment;
+import pl.finder.elmer.subscription.ConcurrencyAdjustment.Reason;
+import pl.finder.elmer.subscription.SubscribeOptions;
+
+/**
+ * Adjusts number of consumption threads and prefetch count of subscription (AIMD), see AdaptiveConcurrencyOptions.
+ * Baseline latency follows lowest average latency and drifts slowly towards higher averages, so persistent
+ * change of handler latency becomes new baseline.
+ * Prefetch count is changed with channel wide basic.qos, which unlike per consumer one applies to running
+ * consumer. Broker queue depth is checked over separate channel, as failed passive declare closes channel.
+ */
+@Slf4j
+final class AdaptiveConcurrencyController implements AutoCloseable {
+    private static final int BaselineDrift = 16;
+
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+    private final SubscribeOptions<?> options;
+    private final AdaptiveConcurrencyOptions limits;
+    private final SubscriptionExecutor executor;
+    private final Channel channel;
+    private final Supplier<Channel> channelFactory;
+    private ScheduledFuture<?> adjustTask;
+    private Channel probeChannel;
+    private long baselineNanos;
+    private int threads;
+    private int prefetch;
+    private boolean closed;
+
+    private AdaptiveConcurrencyController(final SubscribeOptions<?> options, final SubscriptionExecutor executor,
+            final Channel channel, final Supplier<Channel> channelFactory) {
+        this.options = options;
+        this.limits = options.adaptiveConcurrency();
+        this.executor = executor;
+        this.channel = channel;
+        this.channelFactory = channelFactory;
+        this.threads = options.concurrentThreadsLimit();
+        this.prefetch = options.prefetchCount();
+    }
+
+    /**
+     * Creates controller of subscription, options hold initial number of threads and prefetch count.
+     *
+     * @param options subscription options
+     * @param executor consumption executor
+     * @param channel subscription channel
+     * @param channelFactory factory of channel checking broker queue depth
+     * @return created controller, adjustments start with start()
+     */
+    static AdaptiveConcurrencyController create(final SubscribeOptions<?> options,
+            final SubscriptionExecutor executor,
+            final Channel channel, final Supplier<Channel> channelFactory) {
+        return new AdaptiveConcurrencyController(options, executor, channel, channelFactory);
+    }
+
+    /**
+     * Returns consumer measuring handler latency.
+     *
+     * @param consumer measured consumer
+     * @return measuring consumer
+     */
+    <T> Consumer<MessageContext<T>> measured(final Consumer<MessageContext<T>> consumer) {
+        return message -> {
+            final long start = System.nanoTime();
+            try {
+                consumer.accept(message);
+            } finally {
+                latencyNanos.add(System.nanoTime() - start);
+                handled.increment();
+            }
+        };
+    }
+
+    void start() {
+        scheduleNext();
+    }
+
+    private synchronized void scheduleNext() {
+        if (!closed) {
+            // adjustment blocks on broker calls, so it does not run on shared timer thread
+            adjustTask = ConsumptionExecutors.scheduler().schedule(
+                    () -> ConsumptionExecutors.controlExecutor().execute(this::adjust),
+                    limits.adjustInterval().toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void adjust() {
+        try {
+            synchronized (this) {
+                if (!closed) {
+                    adjustOnce();
+                }
+            }
+        } catch (final RuntimeException e) {
+            log.warn(String.format("Could not adjust concurrency of subscription to: '%s'", options.queue()), e);
+        } finally {
+            scheduleNext();
+        }
+    }
+
+    private void adjustOnce() {
+        final long count = handled.sumThenReset();
+        final long averageNanos = count > 0 ? latencyNanos.sumThenReset() / count : 0;
+        final int dispatchQueueDepth = executor.queueDepth();
+        final long backlog = brokerBacklog();
+        final Reason reason;
+        final int newThreads;
+        if (count > 0 && baselineNanos > 0 && averageNanos > baselineNanos * limits.latencyTolerance()) {
+            reason = Reason.LatencyIncrease;
+            newThreads = Math.max(limits.minThreads(), (int) (threads * limits.backoffRatio()));
+        } else if (dispatchQueueDepth > 0 || backlog > 0) {
+            reason = Reason.Backlog;
+            newThreads = Math.min(limits.maxThreads(), threads + 1);
+        } else {
+            reason = Reason.Idle;
+            newThreads = Math.max(limits.minThreads(), threads - 1);
+        }
+        if (count > 0) {
+            baselineNanos = baselineNanos == 0 || averageNanos < baselineNanos ?
+                    averageNanos : baselineNanos + (averageNanos - baselineNanos) / BaselineDrift;
+        }
+        if (newThreads == threads) {
+            return;
+        }
+        final int newPrefetch = limits.prefetchFor(newThreads);
+        executor.resize(newThreads);
+        if (newPrefetch != prefetch) {
+            try {
+                channel.basicQos(options.prefetchSize(), newPrefetch, true);
+            } catch (final IOException e) {
+                throw new IllegalStateException(String.format("Could not change prefetch count to: %d", newPrefetch),
+                        e);
+            }
+        }
+        final ConcurrencyAdjustment adjustment = ConcurrencyAdjustment.of(options.queue(), reason, threads,
+                newThreads, prefetch, newPrefetch, Duration.ofNanos(averageNanos), Duration.ofNanos(baselineNanos),
+                dispatchQueueDepth, backlog);
+        threads = newThreads;
+        prefetch = newPrefetch;
+        if (log.isDebugEnabled()) {
+            log.debug("Concurrency adjusted: " + adjustment);
+        }
+        try {
+            limits.listener().accept(adjustment);
+        } catch (final RuntimeException e) {
+            log.warn("Error while notifying concurrency listener", e);
+        }
+    }
+
+    private long brokerBacklog() {
+        try {
+            if (probeChannel == null || !probeChannel.isOpen()) {
+                probeChannel = channelFactory.get();
+            }
+            return probeChannel.queueDeclarePassive(options.queue()).getMessageCount();
+        } catch (final IOException | RuntimeException e) {
+            log.debug(String.format("Could not check depth of queue: '%s'", options.queue()), e);
+            return -1;
+        }
+    }
+
+    /**
+     * Stops adjustments and closes channel checking broker queue depth.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (adjustTask != null) {
+            adjustTask.cancel(false);
+        }
+        if (probeChannel != null && probeChannel.isOpen()) {
+            try {
+                probeChannel.close();
+            } catch (final IOException | TimeoutException | RuntimeException e) {
+                log.warn("Error while closing queue depth probe channel", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package pl.finder.elmer;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import pl.finder.elmer.core.MessageContext;
+import pl.finder.elmer.subscription.SubscribeOptions;
+
+/**
+ * Adapts asynchronous handler to consumer. Message is acknowledged when stage returned by handler completes
+ * normally and rejected when it completes exceptionally, unless handler has settled message itself.
+ * Number of stages in flight is limited, when limit is reached consumption thread waits for completion
+ * of any stage, as managed blocker so shared pool can compensate for it.
+ */
+final class AsyncConsumer<T> implements Consumer<MessageContext<T>> {
+    private final SubscribeOptions<T> options;
+    private final Semaphore inFlight;
+    private final Function<MessageContext<T>, CompletionStage<?>> handler;
+    private final InFlightCounter inFlightCounter;
+
+    AsyncConsumer(final SubscribeOptions<T> options, final int maxInFlight, final InFlightCounter inFlightCounter,
+            final Function<MessageContext<T>, CompletionStage<?>> handler) {
+        this.options = options;
+        this.inFlightCounter = inFlightCounter;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.handler = handler;
+    }
+
+    @Override
+    public void accept(final MessageContext<T> message) {
+        awaitPermit();
+        inFlightCounter.increment();
+        final CompletionStage<?> stage;
+        try {
+            stage = handler.apply(message);
+            if (stage == null) {
+                throw new IllegalStateException("Asynchronous handler returned null stage");
+            }
+        } catch (final RuntimeException e) {
+            completed(message, e);
+            return;
+        }
+        stage.whenComplete((result, error) -> completed(message, error));
+    }
+
+    private void awaitPermit() {
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    inFlight.acquire();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return inFlight.tryAcquire();
+                }
+            });
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for in flight messages", e);
+        }
+    }
+
+    private void completed(final MessageContext<T> message, final Throwable error) {
+        try {
+            if (error == null) {
+                message.ack();
+            } else {
+                options.onError(unwrap(error));
+                if (!options.autoAckEnabled()) {
+                    message.reject();
+                }
+            }
+        } catch (final RuntimeException e) {
+            options.onError(e);
+        } finally {
+            inFlight.release();
+            inFlightCounter.decrement();
+        }
+    }
+
+    private static Exception unwrap(final Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+    }
+}
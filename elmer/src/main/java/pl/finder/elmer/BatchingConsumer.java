@@ -0,0 +1,112 @@
+package pl.finder.elmer;
+
+import static java.util.Collections.unmodifiableList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import pl.finder.elmer.core.MessageContext;
+import pl.finder.elmer.subscription.BatchSubscribeOptions;
+import pl.finder.elmer.subscription.SubscribeOptions;
+
+/**
+ * Collects deliveries into batches handed to batch consumer when full or when max wait time elapses.
+ * Batch is acknowledged after batch consumer returns, with single multiple ack when its delivery tags
+ * are contiguous. Messages of batch which failed are rejected, so failed batch does not hold prefetch
+ * slots of subscription.
+ */
+final class BatchingConsumer<T> implements Consumer<MessageContext<T>> {
+    private final SubscribeOptions<T> options;
+    private final BatchSubscribeOptions batchOptions;
+    private final Executor executor;
+    private final AckCoalescer ackCoalescer;
+    private final Consumer<List<MessageContext<T>>> consumer;
+    private final InFlightCounter inFlight;
+    private List<MessageContext<T>> batch;
+    private ScheduledFuture<?> timeout;
+
+    BatchingConsumer(final SubscribeOptions<T> options, final BatchSubscribeOptions batchOptions,
+            final Executor executor, final AckCoalescer ackCoalescer, final InFlightCounter inFlight,
+            final Consumer<List<MessageContext<T>>> consumer) {
+        this.options = options;
+        this.batchOptions = batchOptions;
+        this.executor = executor;
+        this.ackCoalescer = ackCoalescer;
+        this.consumer = consumer;
+        this.inFlight = inFlight;
+        this.batch = new ArrayList<>(batchOptions.maxBatchSize());
+    }
+
+    @Override
+    public void accept(final MessageContext<T> message) {
+        final List<MessageContext<T>> full;
+        inFlight.increment();
+        synchronized (this) {
+            batch.add(message);
+            if (batch.size() == 1) {
+                final List<MessageContext<T>> started = batch;
+                // dispatch may wait for free space in subscription buffer, so it must not block timer thread
+                timeout = ConsumptionExecutors.scheduler().schedule(
+                        () -> ConsumptionExecutors.controlExecutor().execute(
+                                () -> executor.execute(() -> handleIfCurrent(started))),
+                        batchOptions.maxWaitTime().toNanos(), TimeUnit.NANOSECONDS);
+            }
+            full = batch.size() >= batchOptions.maxBatchSize() ? takeBatch() : null;
+        }
+        if (full != null) {
+            handle(full);
+        }
+    }
+
+    private void handleIfCurrent(final List<MessageContext<T>> expected) {
+        final List<MessageContext<T>> timedOut;
+        synchronized (this) {
+            if (batch != expected || batch.isEmpty()) {
+                return;
+            }
+            timedOut = takeBatch();
+        }
+        handle(timedOut);
+    }
+
+    private List<MessageContext<T>> takeBatch() {
+        timeout.cancel(false);
+        final List<MessageContext<T>> taken = batch;
+        batch = new ArrayList<>(batchOptions.maxBatchSize());
+        return taken;
+    }
+
+    private void handle(final List<MessageContext<T>> messages) {
+        try {
+            consumer.accept(unmodifiableList(messages));
+            messages.forEach(MessageContext::ack);
+            if (ackCoalescer != null) {
+                ackCoalescer.flush();
+            }
+        } catch (final Exception e) {
+            options.onError(e);
+            reject(messages);
+        } finally {
+            inFlight.decrement(messages.size());
+        }
+    }
+
+    private void reject(final List<MessageContext<T>> messages) {
+        if (options.autoAckEnabled()) {
+            return;
+        }
+        try {
+            // messages already settled by batch consumer are not affected
+            messages.forEach(MessageContext::reject);
+            if (ackCoalescer != null) {
+                ackCoalescer.flush();
+            }
+        } catch (final RuntimeException e) {
+            options.onError(e);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package pl.finder.elmer;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.publication.BatchPublishOptions;
+import pl.finder.elmer.publication.MessagePublisher;
+import pl.finder.elmer.publication.MultiPublishOptions;
+import pl.finder.elmer.publication.PublishOptions;
+import pl.finder.elmer.publication.QueuePublishOptions;
+import pl.finder.elmer.publication.QueuePublisher;
+import pl.finder.elmer.serialization.Message;
+import pl.finder.elmer.serialization.MessageBatch;
+import pl.finder.elmer.serialization.MessageSerializer;
+
+/**
+ * Publisher packing messages with the same publish options into batch envelopes,
+ * published through delegate publisher as single messages.
+ * Publication stage of message is completed when its batch has been published.
+ */
+@Slf4j
+final class BatchingMessagePublisher implements MessagePublisher {
+    private static final long FlushTerminationTimeoutSeconds = 5;
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private final Map<PublishOptions, Batch> batches = new HashMap<>();
+    private final MessagePublisher delegate;
+    private final MessageSerializer serializer;
+    private final BatchPublishOptions batchOptions;
+    private final ScheduledExecutorService flushExecutor;
+
+    BatchingMessagePublisher(final MessagePublisher delegate, final MessageSerializer serializer,
+            final BatchPublishOptions batchOptions) {
+        this.delegate = delegate;
+        this.serializer = serializer;
+        this.batchOptions = batchOptions;
+        this.flushExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("BatchFlushThread-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    @Override
+    public <T> CompletionStage<MessagePublisher> publish(final PublishOptions options, final T message) {
+        checkIsRunning();
+        final CompletableFuture<Void> publication;
+        try {
+            publication = add(options, serializer.serialize(message));
+        } catch (final RuntimeException e) {
+            final CompletableFuture<MessagePublisher> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return publication.thenApply(it -> this);
+    }
+
+    @Override
+    public <T> CompletionStage<MessagePublisher> publishAll(final MultiPublishOptions<T> options,
+            final Collection<T> messages) {
+        checkIsRunning();
+        final List<CompletableFuture<Void>> publications = new ArrayList<>(messages.size());
+        final Iterator<T> remaining = messages.iterator();
+        while (remaining.hasNext()) {
+            final T message = remaining.next();
+            try {
+                final CompletableFuture<Void> publication = add(options.optionsOf(message),
+                        serializer.serialize(message));
+                publications.add(publication.whenComplete((result, error) -> {
+                    if (error != null) {
+                        options.failed(message, unwrap(error));
+                    }
+                }));
+            } catch (final Exception e) {
+                if (!options.shouldContinueOnError(message, e)) {
+                    remaining.forEachRemaining(options::interrupted);
+                }
+            }
+        }
+        return allOf(publications.toArray(new CompletableFuture<?>[publications.size()]))
+                .thenApply(it -> this);
+    }
+
+    @Override
+    public <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options, final BlockingQueue<T> messageQueue,
+            final QueuePublishOptions queueOptions) {
+        checkIsRunning();
+        final List<QueueWorker<T>> workers = IntStream.range(0, queueOptions.workers())
+                .mapToObj(workerNo -> new QueueWorker<>(options, messageQueue, queueOptions))
+                .collect(toList());
+        workers.forEach(worker -> {
+            final Thread workerThread = new Thread(worker::run);
+            workerThread.setName("BatchingQueuePublishingWorker");
+            workerThread.start();
+        });
+        return new QueuePublisher() {
+            @Override
+            public boolean isRunning() {
+                return workers.stream()
+                        .anyMatch(QueueWorker::isRunning);
+            }
+
+            @Override
+            public void close() {
+                workers.forEach(QueueWorker::stop);
+                workers.forEach(QueueWorker::awaitClousure);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        final List<Batch> pending;
+        synchronized (batches) {
+            // adds are checked under the same lock, so no batch is created after pending batches are taken
+            checkState(running.compareAndSet(true, false), "Publisher has been closed");
+            pending = new ArrayList<>(batches.values());
+            batches.clear();
+        }
+        pending.forEach(this::publishBatch);
+        flushExecutor.shutdown();
+        try {
+            if (!flushExecutor.awaitTermination(FlushTerminationTimeoutSeconds, SECONDS)) {
+                log.warn("Timeout while waiting for batch flush");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Waiting for batch flush interrupted", e);
+        }
+        delegate.close();
+    }
+
+    private void checkIsRunning() {
+        checkState(running.get(), "Publisher has been closed");
+    }
+
+    private CompletableFuture<Void> add(final PublishOptions options, final Message message) {
+        final List<Batch> completed = new ArrayList<>(2);
+        final CompletableFuture<Void> publication;
+        synchronized (batches) {
+            checkIsRunning();
+            Batch batch = batches.get(options);
+            if (batch != null && !batch.fits(message)) {
+                batches.remove(options);
+                completed.add(batch);
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new Batch(options);
+                batches.put(options, batch);
+                final Batch lingering = batch;
+                batch.lingerTask = flushExecutor.schedule(() -> flush(lingering),
+                        batchOptions.lingerTime().toNanos(), NANOSECONDS);
+            }
+            batch.add(message);
+            publication = batch.publication;
+            if (batch.isFull()) {
+                batches.remove(options);
+                completed.add(batch);
+            }
+        }
+        completed.forEach(this::publishBatch);
+        return publication;
+    }
+
+    private void flush(final Batch batch) {
+        synchronized (batches) {
+            if (batches.get(batch.options) != batch) {
+                return;
+            }
+            batches.remove(batch.options);
+        }
+        publishBatch(batch);
+    }
+
+    private void publishBatch(final Batch batch) {
+        if (batch.lingerTask != null) {
+            batch.lingerTask.cancel(false);
+        }
+        try {
+            delegate.publish(batch.options, MessageBatch.pack(batch.messages))
+                    .whenComplete((result, error) -> {
+                        if (error != null) {
+                            batch.publication.completeExceptionally(unwrap(error));
+                        } else {
+                            batch.publication.complete(null);
+                        }
+                    });
+        } catch (final RuntimeException e) {
+            batch.publication.completeExceptionally(e);
+        }
+    }
+
+    private static Exception unwrap(final Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+    }
+
+    private final class Batch {
+        private final CompletableFuture<Void> publication = new CompletableFuture<>();
+        private final List<Message> messages = new ArrayList<>();
+        private final PublishOptions options;
+        private ScheduledFuture<?> lingerTask;
+        private int bytes;
+
+        private Batch(final PublishOptions options) {
+            this.options = options;
+        }
+
+        private boolean fits(final Message message) {
+            return bytes + message.bodyLength() <= batchOptions.maxBytes();
+        }
+
+        private void add(final Message message) {
+            messages.add(message);
+            bytes += message.bodyLength();
+        }
+
+        private boolean isFull() {
+            return messages.size() >= batchOptions.maxMessages() || bytes >= batchOptions.maxBytes();
+        }
+    }
+
+    private final class QueueWorker<T> {
+        private final CountDownLatch processingLatch = new CountDownLatch(1);
+        private final AtomicBoolean running = new AtomicBoolean(true);
+        private final MultiPublishOptions<T> options;
+        private final BlockingQueue<T> queue;
+        private final QueuePublishOptions queueOptions;
+        private final List<T> drained = new ArrayList<>();
+
+        private QueueWorker(final MultiPublishOptions<T> options, final BlockingQueue<T> queue,
+                final QueuePublishOptions queueOptions) {
+            this.options = options;
+            this.queue = queue;
+            this.queueOptions = queueOptions;
+        }
+
+        private void run() {
+            while (running.get() && BatchingMessagePublisher.this.running.get()) {
+                try {
+                    final T first = queue.poll(1, SECONDS);
+                    if (first != null) {
+                        drained.add(first);
+                        queue.drainTo(drained, queueOptions.maxBatchSize() - 1);
+                        publishAll(options, drained);
+                    }
+                } catch (final InterruptedException e) {
+                    log.warn("Publishing has been interuupted", e);
+                    break;
+                } catch (final RuntimeException e) {
+                    drained.forEach(options::closed);
+                } finally {
+                    drained.clear();
+                }
+            }
+            processingLatch.countDown();
+        }
+
+        private boolean isRunning() {
+            return processingLatch.getCount() > 0;
+        }
+
+        private void stop() {
+            running.set(false);
+        }
+
+        private void awaitClousure() {
+            try {
+                if (!processingLatch.await(2, SECONDS)) {
+                    log.warn("Timeout while waiting for queue publisher close");
+                }
+            } catch (final InterruptedException e) {
+                log.warn("Queue publisher closing interrupted", e);
+            }
+        }
+    }
+}
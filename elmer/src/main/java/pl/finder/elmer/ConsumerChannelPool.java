@@ -0,0 +1,196 @@
+package pl.finder.elmer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.google.common.collect.ImmutableSet;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.core.ChannelException;
+
+/**
+ * Pool of channels shared by consumers of many subscriptions, each channel carries at most consumersPerChannel
+ * consumers. Channels are created by channel factory, so they are spread across pooled connections,
+ * and closed when their last consumer is released.
+ * When shared channel is closed by channel error, e.g. caused by one of its consumers, it is removed from pool
+ * and failure handlers of its consumers are run on control executor, so consumers can move to other channels.
+ * Failures of connection are left to automatic recovery.
+ * Operations which may fail with channel error, e.g. declares, should use side channel instead of shared ones.
+ */
+@Slf4j
+final class ConsumerChannelPool implements AutoCloseable {
+    private static final long ConfirmTimeoutSeconds = 10;
+
+    private final List<PooledChannel> channels = new ArrayList<>();
+    private final Object publishLock = new Object();
+    private final Supplier<Channel> channelFactory;
+    private final int consumersPerChannel;
+    private Channel sideChannel;
+    private volatile boolean returned;
+
+    ConsumerChannelPool(final Supplier<Channel> channelFactory, final int consumersPerChannel) {
+        this.channelFactory = channelFactory;
+        this.consumersPerChannel = consumersPerChannel;
+    }
+
+    /**
+     * Acquires channel with least consumers, new channel is created when all channels are full.
+     *
+     * @param onFailure handler run when channel is closed by channel error
+     * @return acquired channel, should be released when consumer is cancelled
+     */
+    synchronized PooledChannel acquire(final Runnable onFailure) {
+        PooledChannel selected = null;
+        for (final PooledChannel pooled : channels) {
+            if (pooled.consumers.size() < consumersPerChannel && pooled.channel.isOpen()
+                    && (selected == null || pooled.consumers.size() < selected.consumers.size())) {
+                selected = pooled;
+            }
+        }
+        if (selected == null) {
+            selected = new PooledChannel(channelFactory.get());
+            channels.add(selected);
+            final PooledChannel created = selected;
+            created.channel.addShutdownListener(cause -> onShutdown(created, cause));
+        }
+        selected.consumers.add(onFailure);
+        return selected;
+    }
+
+    /**
+     * Releases channel acquired by consumer, channel is closed when it has no more consumers.
+     *
+     * @param pooled released channel
+     * @param onFailure failure handler passed to acquire
+     */
+    void release(final PooledChannel pooled, final Runnable onFailure) {
+        synchronized (this) {
+            pooled.consumers.remove(onFailure);
+            if (!pooled.consumers.isEmpty()) {
+                return;
+            }
+            channels.remove(pooled);
+        }
+        tryClose(pooled.channel);
+    }
+
+    /**
+     * Returns channel for operations which may fail with channel error, reopened when it has been closed.
+     * Side channel is in confirm mode.
+     *
+     * @return side channel
+     */
+    synchronized Channel sideChannel() {
+        if (sideChannel == null || !sideChannel.isOpen()) {
+            final Channel created = channelFactory.get();
+            try {
+                created.confirmSelect();
+            } catch (final IOException e) {
+                tryClose(created);
+                throw new ChannelException("Could not enable confirms on side channel", e);
+            }
+            created.addReturnListener((replyCode, replyText, exchange, routingKey, properties, body) ->
+                    returned = true);
+            sideChannel = created;
+        }
+        return sideChannel;
+    }
+
+    /**
+     * Publishes mandatory message on side channel and waits until broker confirms it. Publications are serialized,
+     * so message returned by broker before its confirm is told apart from other messages.
+     *
+     * @param exchange exchange name
+     * @param routingKey routing key
+     * @param properties message properties
+     * @param body message body
+     * @throws ChannelException when message has not been confirmed or has been returned as unroutable
+     */
+    void publishConfirmed(final String exchange, final String routingKey, final AMQP.BasicProperties properties,
+            final byte[] body) {
+        synchronized (publishLock) {
+            returned = false;
+            try {
+                final Channel channel = sideChannel();
+                channel.basicPublish(exchange, routingKey, true, properties, body);
+                channel.waitForConfirmsOrDie(TimeUnit.SECONDS.toMillis(ConfirmTimeoutSeconds));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ChannelException(String.format("Interrupted while waiting for confirm of: '%s'",
+                        routingKey), e);
+            } catch (final IOException | TimeoutException | ShutdownSignalException e) {
+                throw new ChannelException(String.format("Message to: '%s' has not been confirmed", routingKey), e);
+            }
+            if (returned) {
+                throw new ChannelException(String.format("Message to: '%s' has been returned as unroutable",
+                        routingKey), null);
+            }
+        }
+    }
+
+    private void onShutdown(final PooledChannel pooled, final ShutdownSignalException cause) {
+        if (cause.isInitiatedByApplication() || cause.isHardError()) {
+            return;
+        }
+        final Set<Runnable> failed;
+        synchronized (this) {
+            if (!channels.remove(pooled)) {
+                return;
+            }
+            failed = ImmutableSet.copyOf(pooled.consumers);
+        }
+        log.warn(String.format("Shared consumer channel closed, moving %d consumers to other channels",
+                failed.size()), cause);
+        // shutdown listeners run on connection thread, which must not wait for broker
+        failed.forEach(ConsumptionExecutors.controlExecutor()::execute);
+    }
+
+    @Override
+    public void close() {
+        final List<PooledChannel> toClose;
+        final Channel side;
+        synchronized (this) {
+            toClose = new ArrayList<>(channels);
+            channels.clear();
+            side = sideChannel;
+            sideChannel = null;
+        }
+        toClose.forEach(pooled -> tryClose(pooled.channel));
+        if (side != null) {
+            tryClose(side);
+        }
+    }
+
+    private static void tryClose(final Channel channel) {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (final IOException | TimeoutException | ShutdownSignalException e) {
+            log.error("Error while closing shared consumer channel", e);
+        }
+    }
+
+    static final class PooledChannel {
+        private final Set<Runnable> consumers = new LinkedHashSet<>();
+        private final Channel channel;
+
+        private PooledChannel(final Channel channel) {
+            this.channel = channel;
+        }
+
+        Channel channel() {
+            return channel;
+        }
+    }
+}
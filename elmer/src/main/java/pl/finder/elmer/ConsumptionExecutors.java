@@ -0,0 +1,150 @@
+package pl.finder.elmer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.subscription.ExecutionMode;
+import pl.finder.elmer.subscription.SubscribeOptions;
+
+/**
+ * Factory of executors handling subscription deliveries.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class ConsumptionExecutors {
+    private static final int BaseQuantum = 8;
+    private static final Method NewVirtualThreadPerTaskExecutor = findVirtualThreadPerTaskExecutor();
+    private static final ScheduledExecutorService Scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("SubscriptionTimerThread-%d")
+                    .setDaemon(true)
+                    .build());
+    private static final ExecutorService ControlExecutor = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("SubscriptionControlThread-%d")
+                    .setDaemon(true)
+                    .build());
+
+    /**
+     * Returns scheduler of subscription timers shared by all subscriptions, scheduled tasks must not block.
+     *
+     * @return shared scheduler
+     */
+    static ScheduledExecutorService scheduler() {
+        return Scheduler;
+    }
+
+    /**
+     * Returns executor of subscription maintenance tasks which may block, e.g. on broker calls.
+     *
+     * @return shared executor
+     */
+    static Executor controlExecutor() {
+        return ControlExecutor;
+    }
+
+    /**
+     * Creates work stealing pool shared by subscriptions of the bus which use platform threads.
+     * Pool compensates only threads waiting for free space in dispatch buffers, handlers are run directly,
+     * so number of threads running handlers does not exceed pool size.
+     *
+     * @param threads number of pool threads
+     * @return shared pool
+     */
+    static ForkJoinPool createSharedPool(final int threads) {
+        final AtomicInteger threadNo = new AtomicInteger();
+        return new ForkJoinPool(threads, pool -> {
+            final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ConsumptionThread-" + threadNo.getAndIncrement());
+            return thread;
+        }, (thread, e) -> log.error("Unhandled error in consumption thread", e), true);
+    }
+
+    /**
+     * Creates executor of subscription, limited to concurrentThreadsLimit concurrent tasks.
+     *
+     * @param options subscription options
+     * @param sharedPool pool shared by subscriptions using platform threads
+     * @return subscription executor
+     */
+    static SubscriptionExecutor create(final SubscribeOptions<?> options, final ForkJoinPool sharedPool) {
+        final int bufferSize = bufferSizeOf(options);
+        final int quantum = quantumOf(options);
+        if (options.executionMode() == ExecutionMode.VirtualThreads) {
+            final ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                    .setNameFormat(String.format("%s-ConsumptionThread", options.queue()) + "-%s")
+                    .build();
+            return SubscriptionExecutor.owning(taskPerThreadExecutor(threadFactory),
+                    options.concurrentThreadsLimit(), bufferSize, quantum);
+        }
+        final int maxThreads = options.adaptiveConcurrency() != null ?
+                options.adaptiveConcurrency().maxThreads() : options.concurrentThreadsLimit();
+        if (maxThreads >= sharedPool.getParallelism()) {
+            log.warn(String.format("Subscription of queue: '%s' may run %d handlers at once, not less than %d "
+                    + "consumption threads, its blocking handlers may delay other subscriptions",
+                    options.queue(), maxThreads, sharedPool.getParallelism()));
+        }
+        return SubscriptionExecutor.shared(sharedPool, options.concurrentThreadsLimit(), bufferSize, quantum);
+    }
+
+    /**
+     * Returns size of dispatch buffer of subscription, bounded by (maximal) prefetch count.
+     * Broker ignores prefetch count of subscriptions with automatic acknowledging, so their buffer is unbounded:
+     * waiting for free space would only park connection dispatch thread while deliveries pile up in client
+     * work queue of the channel.
+     *
+     * @param options subscription options
+     * @return dispatch buffer size
+     */
+    static int bufferSizeOf(final SubscribeOptions<?> options) {
+        if (options.autoAckEnabled()) {
+            return Integer.MAX_VALUE;
+        }
+        if (options.adaptiveConcurrency() != null) {
+            return options.adaptiveConcurrency().maxPrefetch();
+        }
+        return options.prefetchCount() > 0 ? options.prefetchCount() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns number of tasks run by subscription worker before it yields thread to other subscriptions.
+     *
+     * @param options subscription options
+     * @return scheduling quantum
+     */
+    static int quantumOf(final SubscribeOptions<?> options) {
+        return options.schedulingWeight() * BaseQuantum;
+    }
+
+    private static ExecutorService taskPerThreadExecutor(final ThreadFactory fallbackThreadFactory) {
+        if (NewVirtualThreadPerTaskExecutor != null) {
+            try {
+                return (ExecutorService) NewVirtualThreadPerTaskExecutor.invoke(null);
+            } catch (final ReflectiveOperationException e) {
+                log.warn("Could not create virtual thread executor, using platform threads", e);
+            }
+        }
+        return Executors.newCachedThreadPool(fallbackThreadFactory);
+    }
+
+    private static Method findVirtualThreadPerTaskExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException e) {
+            log.info("Virtual threads are not available, VirtualThreads execution mode uses platform threads");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package pl.finder.elmer;
+
+/**
+ * Settlement of delivery consumed by subscription.
+ */
+interface DeliveryActions {
+
+    void ack();
+
+    void nack(boolean requeue);
+}
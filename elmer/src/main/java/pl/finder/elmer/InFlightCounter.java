@@ -0,0 +1,53 @@
+package pl.finder.elmer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counter of deliveries which has not been fully handled by subscription, awaited when subscription is drained.
+ * Consumers deferring handling past their return, e.g. batching or asynchronous ones, count deferred messages
+ * themselves.
+ */
+final class InFlightCounter {
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile boolean awaited;
+
+    void increment() {
+        count.incrementAndGet();
+    }
+
+    void decrement() {
+        decrement(1);
+    }
+
+    void decrement(final int delta) {
+        if (count.addAndGet(-delta) == 0 && awaited) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    int count() {
+        return count.get();
+    }
+
+    /**
+     * Waits until all counted deliveries has been handled.
+     *
+     * @param deadlineNanos deadline, as returned by System.nanoTime()
+     * @return true if all deliveries has been handled, false if deadline passed
+     * @throws InterruptedException when interrupted while waiting
+     */
+    synchronized boolean awaitZero(final long deadlineNanos) throws InterruptedException {
+        awaited = true;
+        while (count.get() > 0) {
+            final long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return true;
+    }
+}
@@ -1,51 +1,179 @@
 package pl.finder.elmer;
 
+import static java.util.Collections.emptyList;
+import static java.util.Collections.singletonList;
+
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
 
 import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.RabbitMessageContext.Body;
 import pl.finder.elmer.core.MessageContext;
 import pl.finder.elmer.serialization.Message;
+import pl.finder.elmer.serialization.MessageBatch;
+import pl.finder.elmer.serialization.MessageCompression;
 import pl.finder.elmer.serialization.MessageSerializer;
+import pl.finder.elmer.subscription.DeliveryMetadata;
+import pl.finder.elmer.subscription.FilteredDeliveryAction;
 import pl.finder.elmer.subscription.SubscribeOptions;
 
 @Slf4j
-final class InternalConsumer<T> extends DefaultConsumer {
+final class InternalConsumer<T> extends DefaultConsumer implements AutoCloseable {
+    private static final DeliveryActions AutoAckActions = new DeliveryActions() {
+        @Override
+        public void ack() {
+        }
+
+        @Override
+        public void nack(final boolean requeue) {
+            throw new IllegalStateException("Cannot nack message: automatic acknowledging is enabled");
+        }
+    };
+
     private final Executor executor;
     private final SubscribeOptions<T> options;
     private final MessageSerializer serializer;
     private final Consumer<MessageContext<T>> consumer;
+    private final AckCoalescer ackCoalescer;
+    private final PartitionedExecutor<T> partitions;
+    private final RetryQueues retryQueues;
+    private final InFlightCounter inFlight;
+    private final CountDownLatch cancelled = new CountDownLatch(1);
 
     InternalConsumer(final Channel channel, final Executor executor,
             final SubscribeOptions<T> options,
             final MessageSerializer serializer,
+            final AckCoalescer ackCoalescer,
+            final RetryQueues retryQueues,
+            final InFlightCounter inFlight,
             final Consumer<MessageContext<T>> consumer) {
         super(channel);
         this.executor = executor;
         this.options = options;
         this.serializer = serializer;
         this.consumer = consumer;
+        this.ackCoalescer = ackCoalescer;
+        this.retryQueues = retryQueues;
+        this.inFlight = inFlight;
+        this.partitions = options.partitionKey() != null ?
+                new PartitionedExecutor<>(executor, options.concurrentThreadsLimit(),
+                        ConsumptionExecutors.bufferSizeOf(options), ConsumptionExecutors.quantumOf(options),
+                        options.partitionKey(),
+                        this::tryNotifyConsumeError, inFlight::decrement) : null;
     }
 
     @Override
     public void handleDelivery(final String consumerTag, final Envelope envelope,
             final BasicProperties properties, final byte[] body)
                     throws IOException {
+        if (isFilteredOut(envelope, properties)) {
+            settleFiltered(envelope.getDeliveryTag());
+            return;
+        }
+        inFlight.increment();
+        try {
+            dispatch(consumerTag, envelope, properties, body);
+        } catch (final RuntimeException e) {
+            inFlight.decrement();
+            throw e;
+        }
+    }
+
+    private void dispatch(final String consumerTag, final Envelope envelope, final BasicProperties properties,
+            final byte[] body) {
+        if (partitions != null) {
+            partitions.execute(() -> decodeOrReject(consumerTag, envelope, properties, body), this::handle);
+            return;
+        }
         executor.execute(() -> {
             try {
-                consume(consumerTag, envelope, properties, body);
+                decodeOrReject(consumerTag, envelope, properties, body).forEach(this::handle);
             } catch (final Exception e) {
                 tryNotifyConsumeError(e);
+            } finally {
+                inFlight.decrement();
             }
         });
     }
 
+    @Override
+    public void handleCancelOk(final String consumerTag) {
+        cancelled.countDown();
+    }
+
+    /**
+     * Drains consumer: cancels it, so no more deliveries are dispatched, waits until deliveries dispatched
+     * before cancellation has been handled and sends pending acknowledgements. Deliveries not handled before
+     * deadline are left to be redelivered once channel is closed.
+     *
+     * @param deadlineNanos drain deadline, as returned by System.nanoTime()
+     * @return true if all deliveries has been handled before deadline
+     */
+    boolean drain(final long deadlineNanos) {
+        boolean drained = false;
+        try {
+            if (getChannel().isOpen() && getConsumerTag() != null) {
+                getChannel().basicCancel(getConsumerTag());
+                drained = cancelled.await(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS)
+                        && inFlight.awaitZero(deadlineNanos);
+            } else {
+                drained = inFlight.count() == 0;
+            }
+        } catch (final IOException | ShutdownSignalException e) {
+            log.warn(String.format("Could not cancel consumer: '%s'", getConsumerTag()), e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn(String.format("Draining of consumer: '%s' interrupted", getConsumerTag()), e);
+        }
+        if (!drained) {
+            log.warn(String.format("Consumer: '%s' of queue: '%s' closed with %d deliveries in flight",
+                    getConsumerTag(), options.queue(), inFlight.count()));
+        }
+        close();
+        return drained;
+    }
+
+    private boolean isFilteredOut(final Envelope envelope, final BasicProperties properties) {
+        if (options.filter() == null) {
+            return false;
+        }
+        try {
+            return !options.filter().test(DeliveryMetadata.of(envelope.getExchange(), envelope.getRoutingKey(),
+                    envelope.isRedeliver(), properties));
+        } catch (final Exception e) {
+            // message is handled when filter fails, so it is neither lost nor left unacknowledged
+            tryNotifyConsumeError(e);
+            return false;
+        }
+    }
+
+    private void settleFiltered(final long deliveryTag) {
+        if (options.autoAckEnabled()) {
+            return;
+        }
+        try {
+            if (options.filteredDeliveryAction() == FilteredDeliveryAction.Reject) {
+                actionsOf(deliveryTag).nack(false);
+            } else {
+                actionsOf(deliveryTag).ack();
+            }
+        } catch (final RuntimeException e) {
+            tryNotifyConsumeError(e);
+        }
+    }
+
     private void tryNotifyConsumeError(final Exception e) {
         try {
             options.onError(e);
@@ -54,21 +182,85 @@ final class InternalConsumer<T> extends DefaultConsumer {
         }
     }
 
-    private void consume(final String consumerTag, final Envelope envelope, final BasicProperties properties,
-            final byte[] body) {
-        final Message rawMessage = Message.builder()
+    /**
+     * Decodes delivery, delivery which cannot be decoded is rejected, so it does not hold prefetch slot.
+     */
+    private List<MessageContext<T>> decodeOrReject(final String consumerTag, final Envelope envelope,
+            final BasicProperties properties, final byte[] body) {
+        try {
+            return decode(consumerTag, envelope, properties, body);
+        } catch (final RuntimeException e) {
+            if (!options.autoAckEnabled()) {
+                try {
+                    actionsOf(envelope.getDeliveryTag()).nack(false);
+                } catch (final RuntimeException ex) {
+                    tryNotifyConsumeError(ex);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private List<MessageContext<T>> decode(final String consumerTag, final Envelope envelope,
+            final BasicProperties properties, final byte[] body) {
+        final Message rawMessage = MessageCompression.decompress(Message.builder()
                 .body(body)
                 .contentType(properties.getContentType())
                 .encoding(properties.getContentEncoding())
                 .type(properties.getType())
-                .build();
-        final T message = deserialize(rawMessage);
-        final Consumer<Void> onAck = ackAction(envelope.getDeliveryTag());
-        final MessageContext<T> messageContext = new RabbitMessageContext<>(
-                message, consumerTag, envelope.getExchange(), envelope.getRoutingKey(),
-                properties, onAck);
-        logDelivery(messageContext);
-        consumer.accept(messageContext);
+                .build(), options.maxDecompressedSize());
+        final DeliveryActions actions = actionsOf(envelope.getDeliveryTag());
+        if (MessageBatch.isBatch(rawMessage)) {
+            return decodeBatch(consumerTag, envelope, properties, rawMessage, actions);
+        }
+        return singletonList(contextOf(consumerTag, envelope, properties, rawMessage, actions));
+    }
+
+    private List<MessageContext<T>> decodeBatch(final String consumerTag, final Envelope envelope,
+            final BasicProperties properties, final Message envelopeMessage, final DeliveryActions actions) {
+        final List<Message> messages = MessageBatch.unpack(envelopeMessage);
+        if (messages.isEmpty()) {
+            actions.ack();
+            return emptyList();
+        }
+        final DeliveryActions messageActions = options.autoAckEnabled() ?
+                actions : new EnvelopeActions(messages.size(), actions);
+        final List<MessageContext<T>> contexts = new ArrayList<>(messages.size());
+        for (final Message packed : messages) {
+            try {
+                final Message message = MessageCompression.decompress(packed, options.maxDecompressedSize());
+                final BasicProperties messageProperties = properties.builder()
+                        .type(message.type())
+                        .contentType(message.contentType())
+                        .contentEncoding(message.encoding())
+                        .build();
+                contexts.add(contextOf(consumerTag, envelope, messageProperties, message, messageActions));
+            } catch (final Exception e) {
+                tryNotifyConsumeError(e);
+                // share of undecodable message is settled, so envelope is settled once remaining messages are
+                if (!options.autoAckEnabled()) {
+                    messageActions.nack(false);
+                }
+            }
+        }
+        return contexts;
+    }
+
+    private MessageContext<T> contextOf(final String consumerTag, final Envelope envelope,
+            final BasicProperties properties, final Message message, final DeliveryActions actions) {
+        final Body<T> body = options.lazyDeserialization() ?
+                Body.lazy(() -> deserialize(message)) : Body.of(deserialize(message));
+        return new RabbitMessageContext<>(body, consumerTag, envelope.getExchange(),
+                envelope.getRoutingKey(), properties, message, actions, retryQueues);
+    }
+
+    private void handle(final MessageContext<T> messageContext) {
+        try {
+            logDelivery(messageContext);
+            consumer.accept(messageContext);
+        } catch (final Exception e) {
+            tryNotifyConsumeError(e);
+        }
     }
 
     private static void logDelivery(final MessageContext<?> messageContext) {
@@ -85,17 +277,94 @@ final class InternalConsumer<T> extends DefaultConsumer {
         }
     }
 
-    private Consumer<Void> ackAction(final long deliveryTag) {
+    private DeliveryActions actionsOf(final long deliveryTag) {
         if (options.autoAckEnabled()) {
-            return it -> {};
+            return AutoAckActions;
         }
-        return it -> {
-            final Channel channel = getChannel();
-            try {
-                channel.basicAck(deliveryTag, false);
-            } catch (final IOException e) {
-                throw new IllegalStateException(String.format("Could not deliver ack for: %d", deliveryTag), e);
+        if (ackCoalescer != null) {
+            return new DeliveryActions() {
+                @Override
+                public void ack() {
+                    ackCoalescer.ack(deliveryTag);
+                }
+
+                @Override
+                public void nack(final boolean requeue) {
+                    ackCoalescer.nack(deliveryTag, requeue);
+                }
+            };
+        }
+        return new DeliveryActions() {
+            @Override
+            public void ack() {
+                try {
+                    getChannel().basicAck(deliveryTag, false);
+                } catch (final IOException e) {
+                    throw new IllegalStateException(String.format("Could not deliver ack for: %d", deliveryTag), e);
+                }
+            }
+
+            @Override
+            public void nack(final boolean requeue) {
+                try {
+                    getChannel().basicNack(deliveryTag, false, requeue);
+                } catch (final IOException e) {
+                    throw new IllegalStateException(String.format("Could not deliver nack for: %d", deliveryTag), e);
+                }
             }
         };
     }
+
+    /**
+     * Sends pending acknowledgements, called before subscription channel is closed.
+     */
+    @Override
+    public void close() {
+        if (ackCoalescer != null) {
+            ackCoalescer.close();
+        }
+    }
+
+    /**
+     * Settlement of batch envelope, envelope is settled once all its messages has been settled.
+     * Envelope is acked when all messages has been acked, otherwise it is nacked, with requeue
+     * if any message has been requeued.
+     */
+    private static final class EnvelopeActions implements DeliveryActions {
+        private static final int Acked = 0;
+        private static final int Rejected = 1;
+        private static final int Requeued = 2;
+
+        private final AtomicInteger pending;
+        private final AtomicInteger settlement = new AtomicInteger(Acked);
+        private final DeliveryActions envelope;
+
+        private EnvelopeActions(final int messages, final DeliveryActions envelope) {
+            this.pending = new AtomicInteger(messages);
+            this.envelope = envelope;
+        }
+
+        @Override
+        public void ack() {
+            settle();
+        }
+
+        @Override
+        public void nack(final boolean requeue) {
+            settlement.accumulateAndGet(requeue ? Requeued : Rejected, Math::max);
+            settle();
+        }
+
+        private void settle() {
+            if (pending.decrementAndGet() != 0) {
+                return;
+            }
+            final int result = settlement.get();
+            if (result == Acked) {
+                envelope.ack();
+            } else {
+                envelope.nack(result == Requeued);
+            }
+        }
+    }
 }
@@ -0,0 +1,156 @@
+package pl.finder.elmer;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.rabbitmq.client.AMQP;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import pl.finder.elmer.commons.Durations;
+import pl.finder.elmer.configuration.RabbitMqConfig;
+import pl.finder.elmer.configuration.RabbitMqConfig.SerializationConfig;
+import pl.finder.elmer.publication.DeliveryMode;
+import pl.finder.elmer.publication.PublishOptions;
+import pl.finder.elmer.serialization.Message;
+import pl.finder.elmer.serialization.MessageBatch;
+import pl.finder.elmer.serialization.MessageCompression;
+
+/**
+ * Cache of message properties templates.
+ * Template is built once per distinct publish options and serialized message metadata,
+ * only per message properties are filled in on publish.
+ * Templates of publish options are looked up by identity of immutable options, so publishing with reused options
+ * neither allocates lookup key nor hashes headers. Options instance seen for the first time is matched by value
+ * with templates of equal options.
+ */
+final class MessagePropertiesTemplates {
+    private static final int MaxTemplates = 1024;
+
+    private final LoadingCache<PublishOptions, OptionsTemplates> templatesByOptions = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(MaxTemplates)
+            .build(CacheLoader.from(this::templatesOf));
+    private final LoadingCache<OptionsKey, OptionsTemplates> templatesByValue = CacheBuilder.newBuilder()
+            .maximumSize(MaxTemplates)
+            .build(CacheLoader.from(OptionsTemplates::new));
+    private final boolean includeMessageType;
+    private final boolean includeEncoding;
+    private final boolean includeContentType;
+    private final int defaultDeliveryMode;
+
+    MessagePropertiesTemplates(final RabbitMqConfig config) {
+        final SerializationConfig serialization = config.serialization();
+        includeMessageType = serialization.includeMessageType();
+        includeEncoding = serialization.incldeEncoding();
+        includeContentType = serialization.includeContentType();
+        defaultDeliveryMode = config.messagePersitanceEnabled() ?
+                DeliveryMode.Persistent.value() : DeliveryMode.NonPersistent.value();
+    }
+
+    AMQP.BasicProperties propertiesOf(final PublishOptions options, final Message message) {
+        final AMQP.BasicProperties template = templatesByOptions.getUnchecked(options).templateOf(
+                includeMessageType ? message.type() : null,
+                includeEncoding || MessageCompression.isCompressed(message.encoding()) ? message.encoding() : null,
+                includeContentType || MessageBatch.isBatch(message) ? message.contentType() : null);
+        if (options.correlationId() == null) {
+            return template;
+        }
+        return template.builder()
+                .correlationId(options.correlationId())
+                .build();
+    }
+
+    private OptionsTemplates templatesOf(final PublishOptions options) {
+        final OptionsKey key = new OptionsKey(
+                options.deliveryMode() != null && options.deliveryMode().value() != null ?
+                        options.deliveryMode().value() : defaultDeliveryMode,
+                options.priority(),
+                options.replyTo(),
+                options.expirationTime(),
+                options.headers());
+        return templatesByValue.getUnchecked(key);
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @EqualsAndHashCode
+    private static final class OptionsKey {
+        private final int deliveryMode;
+        private final Integer priority;
+        private final String replyTo;
+        private final Duration expirationTime;
+        private final Map<String, Object> headers;
+    }
+
+    /**
+     * Templates of single publish options, one per serialized message metadata. The last used template
+     * is checked first, as options are usually used for messages of single type.
+     */
+    private static final class OptionsTemplates {
+        private final OptionsKey options;
+        private final ConcurrentMap<MetadataKey, Template> templates = new ConcurrentHashMap<>();
+        private volatile Template last;
+
+        private OptionsTemplates(final OptionsKey options) {
+            this.options = options;
+        }
+
+        private AMQP.BasicProperties templateOf(final String type, final String encoding, final String contentType) {
+            final Template lastTemplate = last;
+            if (lastTemplate != null && lastTemplate.metadata.matches(type, encoding, contentType)) {
+                return lastTemplate.properties;
+            }
+            final MetadataKey metadata = new MetadataKey(type, encoding, contentType);
+            Template template = templates.get(metadata);
+            if (template == null) {
+                template = new Template(metadata, createTemplate(metadata));
+                if (templates.size() < MaxTemplates) {
+                    templates.putIfAbsent(metadata, template);
+                }
+            }
+            last = template;
+            return template.properties;
+        }
+
+        private AMQP.BasicProperties createTemplate(final MetadataKey metadata) {
+            return new AMQP.BasicProperties.Builder()
+                    .deliveryMode(options.deliveryMode)
+                    .expiration(options.expirationTime != null &&
+                            Durations.isGreaterThan(options.expirationTime, Duration.ZERO) ?
+                            Long.toString(options.expirationTime.toMillis()) : null)
+                    .priority(options.priority)
+                    .replyTo(options.replyTo)
+                    .headers(options.headers)
+                    .type(metadata.type)
+                    .contentEncoding(metadata.encoding)
+                    .contentType(metadata.contentType)
+                    .build();
+        }
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    @EqualsAndHashCode
+    private static final class MetadataKey {
+        private final String type;
+        private final String encoding;
+        private final String contentType;
+
+        private boolean matches(final String type, final String encoding, final String contentType) {
+            return Objects.equals(this.type, type) && Objects.equals(this.encoding, encoding)
+                    && Objects.equals(this.contentType, contentType);
+        }
+    }
+
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class Template {
+        private final MetadataKey metadata;
+        private final AMQP.BasicProperties properties;
+    }
+}
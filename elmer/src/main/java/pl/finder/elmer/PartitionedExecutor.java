@@ -0,0 +1,171 @@
+package pl.finder.elmer;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import pl.finder.elmer.core.MessageContext;
+
+/**
+ * Dispatches messages to lanes chosen by partition key, messages with equal keys are handled one at a time
+ * in order of delivery. Deliveries are decoded concurrently off connection thread, only choosing lanes of decoded
+ * messages is done one delivery at a time in order of delivery.
+ * Number of deliveries which has not been fully handled is limited, when limit is reached connection thread
+ * waits for free space.
+ */
+final class PartitionedExecutor<T> {
+    private final Executor executor;
+    private final List<SerialExecutor> lanes;
+    private final Semaphore capacity;
+    private final Function<MessageContext<T>, ?> partitionKey;
+    private final Consumer<Exception> errorHandler;
+    private final Runnable onCompleted;
+    private final Queue<Delivery> sequence = new ArrayDeque<>();
+    private boolean dispatching;
+
+    PartitionedExecutor(final Executor executor, final int lanes, final int capacity, final int quantum,
+            final Function<MessageContext<T>, ?> partitionKey, final Consumer<Exception> errorHandler,
+            final Runnable onCompleted) {
+        this.executor = executor;
+        this.lanes = IntStream.range(0, lanes)
+                .mapToObj(laneNo -> new SerialExecutor(executor, quantum))
+                .collect(toList());
+        this.capacity = new Semaphore(capacity);
+        this.partitionKey = partitionKey;
+        this.errorHandler = errorHandler;
+        this.onCompleted = onCompleted;
+    }
+
+    /**
+     * Decodes delivery and dispatches its messages to their lanes, onCompleted is run once all of them has been
+     * handled. Must be called by single thread, in order of delivery.
+     *
+     * @param decode decoding of delivery into messages
+     * @param handler message handler
+     */
+    void execute(final Supplier<List<MessageContext<T>>> decode, final Consumer<MessageContext<T>> handler) {
+        try {
+            capacity.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for free space in dispatch buffer", e);
+        }
+        final Delivery delivery = new Delivery(handler);
+        synchronized (sequence) {
+            sequence.add(delivery);
+        }
+        try {
+            executor.execute(() -> decode(delivery, decode));
+        } catch (final RuntimeException e) {
+            // delivery is the last one in sequence, so no decoded delivery waits for it
+            synchronized (sequence) {
+                sequence.remove(delivery);
+            }
+            capacity.release();
+            throw e;
+        }
+    }
+
+    private void decode(final Delivery delivery, final Supplier<List<MessageContext<T>>> decode) {
+        try {
+            delivery.messages = decode.get();
+        } catch (final RuntimeException e) {
+            delivery.error = e;
+        }
+        synchronized (sequence) {
+            delivery.decoded = true;
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+        dispatchDecoded();
+    }
+
+    /**
+     * Dispatches decoded deliveries from head of sequence, deliveries decoded out of order wait until deliveries
+     * preceding them are decoded. Run by one thread at a time.
+     */
+    private void dispatchDecoded() {
+        while (true) {
+            final Delivery head;
+            synchronized (sequence) {
+                head = sequence.peek();
+                if (head == null || !head.decoded) {
+                    dispatching = false;
+                    return;
+                }
+                sequence.poll();
+            }
+            dispatch(head);
+        }
+    }
+
+    private void dispatch(final Delivery delivery) {
+        if (delivery.error != null) {
+            completed();
+            errorHandler.accept(delivery.error);
+            return;
+        }
+        final List<MessageContext<T>> messages = delivery.messages;
+        if (messages.isEmpty()) {
+            completed();
+            return;
+        }
+        final AtomicInteger remaining = new AtomicInteger(messages.size());
+        final Runnable onHandled = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                completed();
+            }
+        };
+        for (final MessageContext<T> message : messages) {
+            try {
+                laneOf(message).execute(() -> {
+                    try {
+                        delivery.handler.accept(message);
+                    } finally {
+                        onHandled.run();
+                    }
+                });
+            } catch (final RuntimeException e) {
+                onHandled.run();
+                errorHandler.accept(e);
+            }
+        }
+    }
+
+    private void completed() {
+        capacity.release();
+        onCompleted.run();
+    }
+
+    private SerialExecutor laneOf(final MessageContext<T> message) {
+        final Object key = partitionKey.apply(message);
+        if (key == null) {
+            return lanes.get(0);
+        }
+        final int hash = key.hashCode();
+        return lanes.get(Math.floorMod(hash ^ (hash >>> 16), lanes.size()));
+    }
+
+    private final class Delivery {
+        private final Consumer<MessageContext<T>> handler;
+        private List<MessageContext<T>> messages;
+        private RuntimeException error;
+        private boolean decoded;
+
+        private Delivery(final Consumer<MessageContext<T>> handler) {
+            this.handler = handler;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package pl.finder.elmer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import pl.finder.elmer.core.ChannelException;
+import pl.finder.elmer.core.PublishingException;
+import pl.finder.elmer.publication.PublishOptions;
+
+/**
+ * Publications awaiting broker confirmation on a single channel.
+ * Publish sequence numbers of a channel are contiguous, so pending confirmations are kept in a ring
+ * indexed by sequence number offset instead of a boxed map.
+ */
+final class PendingConfirms implements ConfirmListener, ShutdownListener {
+    private static final int InitialCapacity = 64;
+
+    private PublishOptions[] options = new PublishOptions[InitialCapacity];
+    private CompletableFuture<?>[] futures = new CompletableFuture<?>[InitialCapacity];
+    private long firstSeqNo;
+    private int head;
+    private int size;
+    private ShutdownSignalException shutdownCause;
+
+    synchronized void register(final long seqNo, final PublishOptions publishOptions,
+            final CompletableFuture<?> future) {
+        if (shutdownCause != null) {
+            future.completeExceptionally(channelClosed(shutdownCause));
+            return;
+        }
+        if (size == 0) {
+            firstSeqNo = seqNo;
+        }
+        final int offset = (int) (seqNo - firstSeqNo);
+        if (offset >= futures.length) {
+            grow(offset + 1);
+        }
+        final int index = indexOf(offset);
+        options[index] = publishOptions;
+        futures[index] = future;
+        size = offset + 1;
+    }
+
+    void fail(final long seqNo, final Exception cause) {
+        final CompletableFuture<?> future;
+        synchronized (this) {
+            future = remove(seqNo);
+        }
+        if (future != null) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    @Override
+    public void handleAck(final long seqNo, final boolean multiple) throws IOException {
+        final List<CompletableFuture<?>> confirmed = new ArrayList<>();
+        synchronized (this) {
+            collect(seqNo, multiple, (index, future) -> confirmed.add(future));
+        }
+        confirmed.forEach(future -> future.complete(null));
+    }
+
+    @Override
+    public void handleNack(final long seqNo, final boolean multiple) throws IOException {
+        final List<CompletableFuture<?>> rejected = new ArrayList<>();
+        final List<PublishOptions> rejectedOptions = new ArrayList<>();
+        synchronized (this) {
+            collect(seqNo, multiple, (index, future) -> {
+                rejected.add(future);
+                rejectedOptions.add(options[index]);
+            });
+        }
+        for (int i = 0; i < rejected.size(); i++) {
+            rejected.get(i).completeExceptionally(PublishingException.create(rejectedOptions.get(i),
+                    new IOException("Message has been rejected by broker")));
+        }
+    }
+
+    @Override
+    public void shutdownCompleted(final ShutdownSignalException cause) {
+        final List<CompletableFuture<?>> unconfirmed = new ArrayList<>();
+        synchronized (this) {
+            shutdownCause = cause;
+            for (int offset = 0; offset < size; offset++) {
+                final int index = indexOf(offset);
+                if (futures[index] != null) {
+                    unconfirmed.add(futures[index]);
+                }
+                clear(index);
+            }
+            head = 0;
+            size = 0;
+        }
+        unconfirmed.forEach(future -> future.completeExceptionally(channelClosed(cause)));
+    }
+
+    private void collect(final long seqNo, final boolean multiple, final PendingConsumer consumer) {
+        if (size == 0 || seqNo < firstSeqNo) {
+            return;
+        }
+        if (!multiple) {
+            final int offset = (int) (seqNo - firstSeqNo);
+            if (offset < size && futures[indexOf(offset)] != null) {
+                final int index = indexOf(offset);
+                consumer.accept(index, futures[index]);
+                clear(index);
+                compact();
+            }
+            return;
+        }
+        final int last = (int) Math.min(seqNo - firstSeqNo, size - 1L);
+        for (int offset = 0; offset <= last; offset++) {
+            final int index = indexOf(offset);
+            if (futures[index] != null) {
+                consumer.accept(index, futures[index]);
+                clear(index);
+            }
+        }
+        compact();
+    }
+
+    private CompletableFuture<?> remove(final long seqNo) {
+        final long offset = seqNo - firstSeqNo;
+        if (size == 0 || offset < 0 || offset >= size) {
+            return null;
+        }
+        final int index = indexOf((int) offset);
+        final CompletableFuture<?> future = futures[index];
+        clear(index);
+        compact();
+        return future;
+    }
+
+    private void compact() {
+        while (size > 0 && futures[head] == null) {
+            head = (head + 1) % futures.length;
+            firstSeqNo++;
+            size--;
+        }
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    private void grow(final int required) {
+        int capacity = futures.length;
+        while (capacity < required) {
+            capacity <<= 1;
+        }
+        final PublishOptions[] grownOptions = new PublishOptions[capacity];
+        final CompletableFuture<?>[] grownFutures = new CompletableFuture<?>[capacity];
+        for (int offset = 0; offset < size; offset++) {
+            grownOptions[offset] = options[indexOf(offset)];
+            grownFutures[offset] = futures[indexOf(offset)];
+        }
+        options = grownOptions;
+        futures = grownFutures;
+        head = 0;
+    }
+
+    private int indexOf(final int offset) {
+        return (head + offset) % futures.length;
+    }
+
+    private void clear(final int index) {
+        options[index] = null;
+        futures[index] = null;
+    }
+
+    private static ChannelException channelClosed(final ShutdownSignalException cause) {
+        return new ChannelException("Publishing channel has been closed before confirmation", cause);
+    }
+
+    @FunctionalInterface
+    private interface PendingConsumer {
+        void accept(int index, CompletableFuture<?> future);
+    }
+}
@@ -0,0 +1,302 @@
+package pl.finder.elmer;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.publication.PublishOptions;
+import pl.finder.elmer.publication.SpoolSyncPolicy;
+
+/**
+ * Disk backed spool of messages which could not be published because broker was unreachable.
+ * Messages are appended to memory mapped segment files and replayed in order by background thread
+ * over channel in confirms mode, segment file is deleted once all its messages has been confirmed.
+ * While spool holds messages awaiting replay, new messages are appended to it as well to preserve order.
+ * Delivery is at least once: messages of partially replayed segment are replayed again after failure or restart.
+ * Segments are forced to disk according to sync policy, messages not forced yet are lost when the host crashes.
+ */
+@Slf4j
+final class PublishSpool implements AutoCloseable {
+    private static final String SegmentSuffix = ".spool";
+    private static final long ConfirmTimeoutSeconds = 60;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Supplier<Channel> channelFactory;
+    private final Duration retryInterval;
+    private final SpoolSyncPolicy syncPolicy;
+    private final Deque<SpoolSegment> segments = new ArrayDeque<>();
+    private final Thread replayThread;
+
+    private long nextSegmentId;
+    private boolean closed;
+    private PublishingChannel replayChannel;
+
+    private PublishSpool(final Path directory, final int segmentSize, final Supplier<Channel> channelFactory,
+            final Duration retryInterval, final SpoolSyncPolicy syncPolicy) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.channelFactory = channelFactory;
+        this.retryInterval = retryInterval;
+        this.syncPolicy = syncPolicy;
+        this.replayThread = new Thread(this::replay);
+        replayThread.setName("PublishSpoolReplay");
+        replayThread.setDaemon(true);
+    }
+
+    /**
+     * Opens spool in given directory, messages left by previous instance are replayed.
+     *
+     * @param directory spool directory
+     * @param segmentSize size of segment files
+     * @param channelFactory factory of replay channels
+     * @param retryInterval interval of replay retries while broker is unreachable
+     * @param syncPolicy moment at which segments are forced to disk
+     * @return opened spool
+     */
+    static PublishSpool open(final Path directory, final int segmentSize, final Supplier<Channel> channelFactory,
+            final Duration retryInterval, final SpoolSyncPolicy syncPolicy) {
+        final PublishSpool spool = new PublishSpool(directory, segmentSize, channelFactory, retryInterval,
+                syncPolicy);
+        try {
+            spool.recover();
+        } catch (final IOException e) {
+            throw new IllegalStateException(String.format("Could not open publish spool in: '%s'", directory), e);
+        }
+        spool.replayThread.start();
+        return spool;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        final List<Path> files;
+        try (final Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                    .filter(file -> file.getFileName().toString().endsWith(SegmentSuffix))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            final SpoolSegment segment = SpoolSegment.open(segmentIdOf(file), file);
+            nextSegmentId = segment.id() + 1;
+            if (segment.isEmpty()) {
+                segment.delete();
+            } else {
+                segments.add(segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info(String.format("Recovered %d publish spool segments from: '%s'", segments.size(), directory));
+        }
+    }
+
+    /**
+     * Appends message to spool if spool holds messages awaiting replay.
+     *
+     * @param options publish options
+     * @param properties message properties
+     * @param body message body
+     * @return true if message has been appended, false if it should be published directly
+     */
+    boolean appendIfPending(final PublishOptions options, final AMQP.BasicProperties properties,
+            final byte[] body) {
+        if (!isPending()) {
+            return false;
+        }
+        final byte[] record = SpooledMessage.encode(options, properties, body);
+        synchronized (this) {
+            if (segments.isEmpty()) {
+                return false;
+            }
+            appendRecord(record);
+            return true;
+        }
+    }
+
+    /**
+     * Appends message to spool.
+     *
+     * @param options publish options
+     * @param properties message properties
+     * @param body message body
+     */
+    void append(final PublishOptions options, final AMQP.BasicProperties properties, final byte[] body) {
+        final byte[] record = SpooledMessage.encode(options, properties, body);
+        synchronized (this) {
+            appendRecord(record);
+        }
+    }
+
+    synchronized boolean isPending() {
+        return !segments.isEmpty();
+    }
+
+    private void appendRecord(final byte[] record) {
+        checkState(!closed, "Publish spool has been closed");
+        SpoolSegment last = segments.peekLast();
+        if (last == null || !last.tryAppend(record)) {
+            if (last != null && syncPolicy == SpoolSyncPolicy.SegmentRoll) {
+                last.force();
+            }
+            last = createSegment(record.length);
+            last.tryAppend(record);
+            segments.add(last);
+        }
+        if (syncPolicy == SpoolSyncPolicy.EveryRecord) {
+            last.force();
+        }
+        notifyAll();
+    }
+
+    private SpoolSegment createSegment(final int recordLength) {
+        final long id = nextSegmentId++;
+        final Path file = directory.resolve(String.format("%020d%s", id, SegmentSuffix));
+        try {
+            return SpoolSegment.create(id, file, Math.max(segmentSize, recordLength + 2 * Integer.BYTES));
+        } catch (final IOException e) {
+            throw new IllegalStateException(String.format("Could not create publish spool segment: '%s'", file), e);
+        }
+    }
+
+    private void replay() {
+        while (awaitPending()) {
+            try {
+                replayFirstSegment();
+            } catch (final InterruptedException e) {
+                break;
+            } catch (final Exception e) {
+                log.warn(String.format("Could not replay spooled messages, retrying in %dms",
+                        retryInterval.toMillis()), e);
+                closeReplayChannel();
+                rewindFirstSegment();
+                if (!awaitRetry()) {
+                    break;
+                }
+            }
+        }
+        closeReplayChannel();
+    }
+
+    private synchronized boolean awaitPending() {
+        try {
+            while (!closed && segments.isEmpty()) {
+                wait();
+            }
+        } catch (final InterruptedException e) {
+            return false;
+        }
+        return !closed;
+    }
+
+    private boolean awaitRetry() {
+        try {
+            Thread.sleep(Math.max(retryInterval.toMillis(), 1));
+        } catch (final InterruptedException e) {
+            return false;
+        }
+        return !isClosed();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void replayFirstSegment() throws InterruptedException, ExecutionException, TimeoutException {
+        final PublishingChannel channel = replayChannel();
+        final SpoolSegment segment = firstSegment();
+        final List<CompletableFuture<Void>> confirmations = new ArrayList<>();
+        ByteBuffer record;
+        while ((record = readNext(segment)) != null) {
+            final SpooledMessage message = SpooledMessage.decode(record);
+            confirmations.add(channel.publish(message.options(), message.properties(), message.body()));
+        }
+        allOf(confirmations.toArray(new CompletableFuture<?>[confirmations.size()]))
+                .get(ConfirmTimeoutSeconds, SECONDS);
+        removeIfReplayed(segment);
+    }
+
+    private PublishingChannel replayChannel() {
+        if (replayChannel == null || !replayChannel.isOpen()) {
+            replayChannel = PublishingChannel.open(channelFactory, true);
+        }
+        return replayChannel;
+    }
+
+    private synchronized SpoolSegment firstSegment() {
+        return segments.peekFirst();
+    }
+
+    private synchronized ByteBuffer readNext(final SpoolSegment segment) {
+        return segment.readNext();
+    }
+
+    private synchronized void rewindFirstSegment() {
+        if (!segments.isEmpty()) {
+            segments.peekFirst().rewind();
+        }
+    }
+
+    private synchronized void removeIfReplayed(final SpoolSegment segment) {
+        if (!segment.isFullyRead()) {
+            // messages appended during replay are replayed in next round
+            return;
+        }
+        segments.remove(segment);
+        try {
+            segment.delete();
+        } catch (final IOException e) {
+            log.error(String.format("Could not delete replayed spool segment: %d", segment.id()), e);
+        }
+    }
+
+    private static long segmentIdOf(final Path file) {
+        final String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SegmentSuffix.length()));
+    }
+
+    private void closeReplayChannel() {
+        if (replayChannel != null) {
+            try {
+                replayChannel.close();
+            } catch (final RuntimeException e) {
+                log.error("Error while closing spool replay channel", e);
+            }
+            replayChannel = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            segments.forEach(SpoolSegment::force);
+            notifyAll();
+        }
+        replayThread.interrupt();
+        try {
+            replayThread.join(SECONDS.toMillis(2));
+        } catch (final InterruptedException e) {
+            log.warn("Publish spool closing interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package pl.finder.elmer;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.core.ChannelException;
+import pl.finder.elmer.core.PublishingException;
+import pl.finder.elmer.publication.PublishOptions;
+
+/**
+ * Channel used for publishing, optionally in publisher confirms mode.
+ * Not thread safe: each instance should be used by single publishing thread.
+ */
+@Slf4j
+final class PublishingChannel implements AutoCloseable {
+    private final Channel channel;
+    private final PendingConfirms confirms;
+    private final PublishingFlowControl flowControl;
+
+    private PublishingChannel(final Channel channel, final PendingConfirms confirms,
+            final PublishingFlowControl flowControl) {
+        this.channel = channel;
+        this.confirms = confirms;
+        this.flowControl = flowControl;
+    }
+
+    static PublishingChannel open(final Supplier<Channel> channelFactory, final boolean confirmsEnabled) {
+        return open(channelFactory, confirmsEnabled, null);
+    }
+
+    /**
+     * Opens publishing channel.
+     *
+     * @param channelFactory channel factory
+     * @param confirmsEnabled true when publisher confirms should be enabled
+     * @param flowControl flow control notified about blocking of channel connection, may be null
+     * @return opened channel
+     */
+    static PublishingChannel open(final Supplier<Channel> channelFactory, final boolean confirmsEnabled,
+            final PublishingFlowControl flowControl) {
+        final Channel channel = channelFactory.get();
+        if (flowControl != null) {
+            channel.getConnection().removeBlockedListener(flowControl);
+            channel.getConnection().addBlockedListener(flowControl);
+            channel.addShutdownListener(flowControl);
+        }
+        if (!confirmsEnabled) {
+            return new PublishingChannel(channel, null, flowControl);
+        }
+        try {
+            channel.confirmSelect();
+        } catch (final IOException e) {
+            tryClose(channel);
+            throw new ChannelException("Could not enable publisher confirms", e);
+        }
+        final PendingConfirms confirms = new PendingConfirms();
+        channel.addConfirmListener(confirms);
+        channel.addShutdownListener(confirms);
+        return new PublishingChannel(channel, confirms, flowControl);
+    }
+
+    boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Publishes message body.
+     *
+     * @param options publish options
+     * @param properties message properties
+     * @param body message body
+     * @return stage completed when message has been written to channel or,
+     *          in confirms mode, when broker has confirmed it
+     */
+    CompletableFuture<Void> publish(final PublishOptions options, final AMQP.BasicProperties properties,
+            final byte[] body) {
+        if (confirms == null) {
+            basicPublish(options, properties, body);
+            return completedFuture(null);
+        }
+        final CompletableFuture<Void> confirmation = new CompletableFuture<>();
+        final long seqNo = channel.getNextPublishSeqNo();
+        confirms.register(seqNo, options, confirmation);
+        try {
+            basicPublish(options, properties, body);
+        } catch (final PublishingException e) {
+            confirms.fail(seqNo, e);
+            throw e;
+        }
+        return confirmation;
+    }
+
+    private void basicPublish(final PublishOptions options, final AMQP.BasicProperties properties,
+            final byte[] body) {
+        try {
+            channel.basicPublish(options.exchange(), options.routingKey(), options.mandatory(), options.immediate(),
+                    properties, body);
+        } catch (final IOException e) {
+            throw PublishingException.create(options, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flowControl != null) {
+            channel.getConnection().removeBlockedListener(flowControl);
+        }
+        if (channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException e) {
+                throw new IllegalStateException("Could not close channel", e);
+            }
+        }
+    }
+
+    private static void tryClose(final Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException | TimeoutException e) {
+            log.error("Error while closing channel", e);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package pl.finder.elmer;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import lombok.AccessLevel;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.core.PublisherOverloadedException;
+import pl.finder.elmer.publication.BackpressureStrategy;
+
+/**
+ * Limits number and size of publications pending on publisher, shared by all its publishing channels
+ * and counting both queued and in flight publications.
+ * Publications are not accepted while any publishing connection is blocked by broker,
+ * e.g. because of memory or disk alarm.
+ */
+@Slf4j
+final class PublishingFlowControl implements BlockedListener, ShutdownListener {
+    private final int maxPendingMessages;
+    private final long maxPendingBytes;
+    private final BackpressureStrategy strategy;
+    private final Deque<DelayedPermit> delayed = new ArrayDeque<>();
+
+    private int pendingMessages;
+    private long pendingBytes;
+    private boolean blocked;
+    private boolean closed;
+
+    PublishingFlowControl(final int maxPendingMessages, final long maxPendingBytes,
+            final BackpressureStrategy strategy) {
+        this.maxPendingMessages = maxPendingMessages;
+        this.maxPendingBytes = maxPendingBytes;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Acquires permit for publication of given number of messages.
+     * Publication exceeding limits on its own is accepted once there are no other pending publications.
+     *
+     * @param messages number of published messages
+     * @param bytes total size of published messages
+     * @return stage completed with permit once publication is accepted
+     */
+    CompletableFuture<Permit> acquire(final int messages, final long bytes) {
+        final Permit permit = new Permit(messages, bytes);
+        synchronized (this) {
+            if (closed) {
+                return failed(new IllegalStateException("Publisher has been closed"));
+            }
+            if (delayed.isEmpty() && tryAcquire(permit)) {
+                return completedFuture(permit);
+            }
+            if (strategy == BackpressureStrategy.FailFast) {
+                return failed(new PublisherOverloadedException(String.format(
+                        "Publisher overloaded, pending messages: %d, pending bytes: %d, connection blocked: %s",
+                        pendingMessages, pendingBytes, blocked)));
+            }
+            if (strategy == BackpressureStrategy.Delay) {
+                final DelayedPermit delayedPermit = new DelayedPermit(permit);
+                delayed.add(delayedPermit);
+                return delayedPermit.acquisition;
+            }
+            return awaitAcquire(permit);
+        }
+    }
+
+    private CompletableFuture<Permit> awaitAcquire(final Permit permit) {
+        try {
+            while (!tryAcquire(permit)) {
+                if (closed) {
+                    return failed(new IllegalStateException("Publisher has been closed"));
+                }
+                wait();
+            }
+            return completedFuture(permit);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return failed(new PublisherOverloadedException("Interrupted while waiting for publication permit", e));
+        }
+    }
+
+    private boolean tryAcquire(final Permit permit) {
+        if (blocked) {
+            return false;
+        }
+        if (pendingMessages > 0 && (pendingMessages + permit.messages > maxPendingMessages
+                || pendingBytes + permit.bytes > maxPendingBytes)) {
+            return false;
+        }
+        pendingMessages += permit.messages;
+        pendingBytes += permit.bytes;
+        return true;
+    }
+
+    private void release(final Permit permit) {
+        synchronized (this) {
+            pendingMessages -= permit.messages;
+            pendingBytes -= permit.bytes;
+        }
+        admitWaiting();
+    }
+
+    private void admitWaiting() {
+        final List<DelayedPermit> admitted = new ArrayList<>();
+        synchronized (this) {
+            while (!delayed.isEmpty() && tryAcquire(delayed.peek().permit)) {
+                admitted.add(delayed.poll());
+            }
+            notifyAll();
+        }
+        admitted.forEach(DelayedPermit::admit);
+    }
+
+    @Override
+    public void handleBlocked(final String reason) {
+        log.warn(String.format("Publishing connection has been blocked by broker, reason: '%s'", reason));
+        synchronized (this) {
+            blocked = true;
+        }
+    }
+
+    @Override
+    public void handleUnblocked() {
+        log.info("Publishing connection has been unblocked by broker");
+        unblock();
+    }
+
+    @Override
+    public void shutdownCompleted(final ShutdownSignalException cause) {
+        // blocked state is reported again for new connection, while closing of single channel leaves connection
+        // blocked
+        if (cause.isHardError()) {
+            unblock();
+        }
+    }
+
+    private void unblock() {
+        synchronized (this) {
+            blocked = false;
+        }
+        admitWaiting();
+    }
+
+    /**
+     * Rejects waiting and further publications.
+     */
+    void close() {
+        final List<DelayedPermit> rejected;
+        synchronized (this) {
+            closed = true;
+            rejected = new ArrayList<>(delayed);
+            delayed.clear();
+            notifyAll();
+        }
+        rejected.forEach(DelayedPermit::reject);
+    }
+
+    private static <T> CompletableFuture<T> failed(final Exception error) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+
+    /**
+     * Permit of accepted publication, should be released once publication completes.
+     */
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    final class Permit {
+        private final int messages;
+        private final long bytes;
+
+        void release() {
+            PublishingFlowControl.this.release(this);
+        }
+    }
+
+    private static final class DelayedPermit {
+        private final CompletableFuture<Permit> acquisition = new CompletableFuture<>();
+        private final Permit permit;
+
+        private DelayedPermit(final Permit permit) {
+            this.permit = permit;
+        }
+
+        private void admit() {
+            acquisition.complete(permit);
+        }
+
+        private void reject() {
+            acquisition.completeExceptionally(new IllegalStateException("Publisher has been closed"));
+        }
+    }
+}
@@ -1,13 +1,18 @@
 package pl.finder.elmer;
 
+import static java.util.stream.Collectors.toList;
+
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletionStage;
-import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rabbitmq.client.Channel;
@@ -16,6 +21,8 @@ import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.NoArgsConstructor;
 import pl.finder.elmer.RabbitConnectionProvider.DefaultSslConfigurator;
+import pl.finder.elmer.RabbitMessagePublisher.DefaultPublisherConfigurator;
+import pl.finder.elmer.RabbitSubscriptionManager.DefaultConsumptionConfigurator;
 import pl.finder.elmer.configuration.BusConfigurator;
 import pl.finder.elmer.configuration.RabbitMqConfig;
 import pl.finder.elmer.core.MessageBus;
@@ -23,13 +30,18 @@ import pl.finder.elmer.core.MessageContext;
 import pl.finder.elmer.io.ConnectionProvider;
 import pl.finder.elmer.io.PooledConnectionProvider;
 import pl.finder.elmer.io.SslConfigurator;
+import pl.finder.elmer.publication.BatchPublishOptions;
 import pl.finder.elmer.publication.MessagePublisher;
 import pl.finder.elmer.publication.MultiPublishOptions;
 import pl.finder.elmer.publication.PublishOptions;
+import pl.finder.elmer.publication.PublisherConfigurator;
+import pl.finder.elmer.publication.QueuePublishOptions;
 import pl.finder.elmer.publication.QueuePublisher;
 import pl.finder.elmer.serialization.DelegatingMessageSerializer;
 import pl.finder.elmer.serialization.MessageSerializer;
 import pl.finder.elmer.serialization.MessageSerializer.Configurator;
+import pl.finder.elmer.subscription.BatchSubscribeOptions;
+import pl.finder.elmer.subscription.ConsumptionConfigurator;
 import pl.finder.elmer.subscription.SubscribeOptions;
 import pl.finder.elmer.subscription.Subscription;
 import pl.finder.elmer.topology.TopologyManager;
@@ -38,9 +50,11 @@ import pl.finder.elmer.topology.TopologyManager;
 final class RabbitMessageBus implements MessageBus {
     private final ConnectionProvider connectionProvider;
     private final MessagePublisher publisher;
+    private final PublishSpool spool;
     private final RabbitSubscriptionManager subscriptionManager;
     private final RabbitTopologyManager topologyManager;
     private final Supplier<MessagePublisher> publisherFactory;
+    private final MessageSerializer serializer;
 
     static MessageBus create(final RabbitMqConfig config, final Consumer<BusConfigurator> options) {
         final DefaultBusConfigurator configurator = DefaultBusConfigurator.create();
@@ -51,22 +65,50 @@ final class RabbitMessageBus implements MessageBus {
         final ConnectionProvider connectionPool = new PooledConnectionProvider(connectionProvider,
                 config.connectionPoolSize());
         final Supplier<Channel> channelFactory = RabbitChannelFactory.create(connectionPool);
-        final MessagePublisher publisher = createMessagePublisher(config, serializer, channelFactory);
-        final RabbitSubscriptionManager subscriptionManager = new RabbitSubscriptionManager(serializer, channelFactory);
+        final DefaultPublisherConfigurator publisherSettings = configurator.publisherConfigurator;
+        final PublishSpool spool = publisherSettings.openSpool(channelFactory, config.networkRecoveryInterval());
+        final MessagePublisher publisher = createMessagePublisher(config, publisherSettings, serializer,
+                channelFactory, spool);
+        final RabbitSubscriptionManager subscriptionManager = new RabbitSubscriptionManager(serializer, channelFactory,
+                configurator.consumptionConfigurator);
         final RabbitTopologyManager topologyManager = new RabbitTopologyManager();
 
-        return new RabbitMessageBus(connectionProvider, publisher, subscriptionManager,
-                topologyManager, () -> createMessagePublisher(config, serializer, channelFactory));
+        return new RabbitMessageBus(connectionProvider, publisher, spool, subscriptionManager,
+                topologyManager, () -> createMessagePublisher(config, publisherSettings, serializer,
+                        channelFactory, spool), serializer);
     }
 
     private static MessagePublisher createMessagePublisher(final RabbitMqConfig config,
+            final DefaultPublisherConfigurator settings,
             final MessageSerializer serializer,
-            final Supplier<Channel> channelFactory) {
+            final Supplier<Channel> channelFactory,
+            final PublishSpool spool) {
         final ThreadFactory threadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("PublishingThread-%d")
                 .build();
-        final Executor publishingExecutor = Executors.newSingleThreadExecutor(threadFactory);
-        return new RabbitMessagePublisher(config, publishingExecutor, serializer, channelFactory);
+        final MessagePropertiesTemplates propertiesTemplates = new MessagePropertiesTemplates(config);
+        final PublishingFlowControl flowControl = settings.createFlowControl();
+        if (settings.channels() == 1) {
+            return createChannelPublisher(propertiesTemplates, settings, serializer, channelFactory, spool,
+                    flowControl, threadFactory);
+        }
+        final List<MessagePublisher> lanes = IntStream.range(0, settings.channels())
+                .mapToObj(laneNo -> createChannelPublisher(propertiesTemplates, settings, serializer,
+                        channelFactory, spool, flowControl, threadFactory))
+                .collect(toList());
+        return new StripedMessagePublisher(lanes, settings.routing());
+    }
+
+    private static MessagePublisher createChannelPublisher(final MessagePropertiesTemplates propertiesTemplates,
+            final DefaultPublisherConfigurator settings,
+            final MessageSerializer serializer,
+            final Supplier<Channel> channelFactory,
+            final PublishSpool spool,
+            final PublishingFlowControl flowControl,
+            final ThreadFactory threadFactory) {
+        final ExecutorService publishingExecutor = Executors.newSingleThreadExecutor(threadFactory);
+        return new RabbitMessagePublisher(propertiesTemplates, settings, publishingExecutor, serializer,
+                channelFactory, flowControl, spool);
     }
 
     @Override
@@ -81,8 +123,9 @@ final class RabbitMessageBus implements MessageBus {
     }
 
     @Override
-    public <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options, final BlockingQueue<T> messageQueue) {
-        return publisher.publishFrom(options, messageQueue);
+    public <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options, final BlockingQueue<T> messageQueue,
+            final QueuePublishOptions queueOptions) {
+        return publisher.publishFrom(options, messageQueue, queueOptions);
     }
 
     @Override
@@ -90,11 +133,28 @@ final class RabbitMessageBus implements MessageBus {
         return subscriptionManager.subscribe(options, consumer);
     }
 
+    @Override
+    public <T> Subscription subscribeBatch(final SubscribeOptions<T> options, final BatchSubscribeOptions batchOptions,
+            final Consumer<List<MessageContext<T>>> consumer) {
+        return subscriptionManager.subscribeBatch(options, batchOptions, consumer);
+    }
+
+    @Override
+    public <T> Subscription subscribeAsync(final SubscribeOptions<T> options, final int maxInFlight,
+            final Function<MessageContext<T>, CompletionStage<?>> handler) {
+        return subscriptionManager.subscribeAsync(options, maxInFlight, handler);
+    }
+
     @Override
     public MessagePublisher createPublisher() {
         return publisherFactory.get();
     }
 
+    @Override
+    public MessagePublisher createBatchingPublisher(final BatchPublishOptions options) {
+        return new BatchingMessagePublisher(publisherFactory.get(), serializer, options);
+    }
+
     @Override
     public TopologyManager topology() {
         return topologyManager;
@@ -103,8 +163,12 @@ final class RabbitMessageBus implements MessageBus {
     @Override
     public void close() {
         try {
-            publisher.close();
+            // handlers of draining subscriptions may still publish through the bus
             subscriptionManager.close();
+            publisher.close();
+            if (spool != null) {
+                spool.close();
+            }
             topologyManager.close();
         } finally {
             connectionProvider.close();
@@ -115,6 +179,8 @@ final class RabbitMessageBus implements MessageBus {
     private static class DefaultBusConfigurator implements BusConfigurator {
         private MessageSerializer serializer;
         private final DefaultSslConfigurator sslConfigurator = DefaultSslConfigurator.create();
+        private final DefaultPublisherConfigurator publisherConfigurator = DefaultPublisherConfigurator.create();
+        private final DefaultConsumptionConfigurator consumptionConfigurator = DefaultConsumptionConfigurator.create();
 
         @Override
         public BusConfigurator configureSerializer(final Consumer<Configurator> configure) {
@@ -128,6 +194,18 @@ final class RabbitMessageBus implements MessageBus {
             return this;
         }
 
+        @Override
+        public BusConfigurator configurePublisher(final Consumer<PublisherConfigurator> configure) {
+            configure.accept(publisherConfigurator);
+            return this;
+        }
+
+        @Override
+        public BusConfigurator configureConsumption(final Consumer<ConsumptionConfigurator> configure) {
+            configure.accept(consumptionConfigurator);
+            return this;
+        }
+
         private MessageSerializer createSerializer() {
             if (serializer != null) {
                 return serializer;
@@ -1,10 +1,17 @@
 package pl.finder.elmer;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
-import java.util.function.Consumer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
-import com.rabbitmq.client.BasicProperties;
+import com.rabbitmq.client.AMQP;
 
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -12,13 +19,13 @@ import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.experimental.Accessors;
 import pl.finder.elmer.core.MessageContext;
+import pl.finder.elmer.serialization.Message;
 
 @AllArgsConstructor(access = AccessLevel.PACKAGE)
 @Accessors(fluent = true)
 @EqualsAndHashCode
 final class RabbitMessageContext<T> implements MessageContext<T> {
-    @Getter
-    private final T body;
+    private final Body<T> body;
     @Getter
     private final String consumerTag;
     @Getter
@@ -26,12 +33,55 @@ final class RabbitMessageContext<T> implements MessageContext<T> {
     @Getter
     private final String routingKey;
     @Getter
-    private final BasicProperties properties;
-    private transient final Consumer<Void> onAck;
+    private final AMQP.BasicProperties properties;
+    @Getter
+    private transient final Message message;
+    private transient final DeliveryActions actions;
+    private transient final RetryQueues retryQueues;
+    private transient final AtomicBoolean settled = new AtomicBoolean();
+
+    @Override
+    public T body() {
+        return body.get();
+    }
 
     @Override
     public void ack() {
-        onAck.accept(null);
+        settle(actions::ack);
+    }
+
+    @Override
+    public void nack(final boolean requeue) {
+        settle(() -> actions.nack(requeue));
+    }
+
+    private void settle(final Runnable settlement) {
+        if (!settled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            settlement.run();
+        } catch (final RuntimeException e) {
+            settled.set(false);
+            throw e;
+        }
+    }
+
+    @Override
+    public void retry(final Duration delay) {
+        checkNotNull(delay, "Retry delay not specified");
+        checkArgument(!delay.isNegative(), String.format("Invalid retry delay: %s, expected >= 0", delay));
+        checkState(!settled.get(), "Message has already been settled");
+        final Map<String, Object> headers = new HashMap<>(headers());
+        headers.put(AttemptHeader, attempt() + 1);
+        final AMQP.BasicProperties retryProperties = properties.builder()
+                .type(message.type())
+                .contentType(message.contentType())
+                .contentEncoding(message.encoding())
+                .headers(headers)
+                .build();
+        retryQueues.publish(delay, retryProperties, message);
+        settle(actions::ack);
     }
 
     @Override
@@ -43,4 +93,44 @@ final class RabbitMessageContext<T> implements MessageContext<T> {
                 .toString();
 
     }
+
+    /**
+     * Message body, deserialized eagerly or on first access.
+     */
+    static final class Body<T> {
+        private final Supplier<T> deserializer;
+        private volatile boolean deserialized;
+        private T value;
+
+        private Body(final Supplier<T> deserializer, final boolean deserialized, final T value) {
+            this.deserializer = deserializer;
+            this.deserialized = deserialized;
+            this.value = value;
+        }
+
+        static <T> Body<T> of(final T value) {
+            return new Body<>(null, true, value);
+        }
+
+        static <T> Body<T> lazy(final Supplier<T> deserializer) {
+            return new Body<>(deserializer, false, null);
+        }
+
+        T get() {
+            if (!deserialized) {
+                synchronized (this) {
+                    if (!deserialized) {
+                        value = deserializer.get();
+                        deserialized = true;
+                    }
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return deserialized ? String.valueOf(value) : "<not deserialized>";
+        }
+    }
 }
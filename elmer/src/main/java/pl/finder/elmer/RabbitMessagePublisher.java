@@ -1,37 +1,57 @@
 package pl.finder.elmer;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.CompletableFuture.allOf;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.CompletableFuture.runAsync;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
 
-import java.io.IOException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executor;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
 
 import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
-import pl.finder.elmer.commons.Durations;
-import pl.finder.elmer.configuration.RabbitMqConfig;
-import pl.finder.elmer.configuration.RabbitMqConfig.SerializationConfig;
+import pl.finder.elmer.core.ChannelException;
+import pl.finder.elmer.core.ConnectionException;
+import pl.finder.elmer.core.PublisherOverloadedException;
 import pl.finder.elmer.core.PublishingException;
-import pl.finder.elmer.publication.DeliveryMode;
+import pl.finder.elmer.publication.BackpressureStrategy;
 import pl.finder.elmer.publication.MessagePublisher;
 import pl.finder.elmer.publication.MultiPublishOptions;
 import pl.finder.elmer.publication.PublishOptions;
+import pl.finder.elmer.publication.PublisherConfigurator;
+import pl.finder.elmer.publication.PublisherRouting;
+import pl.finder.elmer.publication.QueuePublishOptions;
 import pl.finder.elmer.publication.QueuePublisher;
+import pl.finder.elmer.publication.SpoolSyncPolicy;
 import pl.finder.elmer.serialization.Message;
 import pl.finder.elmer.serialization.MessageSerializer;
 
@@ -39,58 +59,110 @@ import pl.finder.elmer.serialization.MessageSerializer;
 final class RabbitMessagePublisher implements MessagePublisher {
     private final AtomicBoolean running = new AtomicBoolean(true);
 
-    private final RabbitMqConfig config;
-    private final Executor publishingExecutor;
+    private final DefaultPublisherConfigurator settings;
+    private final MessagePropertiesTemplates propertiesTemplates;
+    private final ExecutorService publishingExecutor;
     private final MessageSerializer serializer;
     private final Supplier<Channel> channelFactory;
+    private final PublishingFlowControl flowControl;
+    private final PublishSpool spool;
 
-    private Channel channel;
+    private PublishingChannel channel;
 
-    RabbitMessagePublisher(final RabbitMqConfig config,
-            final Executor publishingExecutor,
+    RabbitMessagePublisher(final MessagePropertiesTemplates propertiesTemplates,
+            final DefaultPublisherConfigurator settings,
+            final ExecutorService publishingExecutor,
             final MessageSerializer serializer,
-            final Supplier<Channel> channelFactory) {
-        this.config = config;
+            final Supplier<Channel> channelFactory,
+            final PublishingFlowControl flowControl,
+            final PublishSpool spool) {
+        this.settings = settings;
+        this.propertiesTemplates = propertiesTemplates;
         this.publishingExecutor = publishingExecutor;
         this.serializer = serializer;
         this.channelFactory = channelFactory;
+        this.flowControl = flowControl;
+        this.spool = spool;
     }
 
     @Override
     public <T> CompletionStage<MessagePublisher> publish(final PublishOptions options, final T message) {
         checkIsRunning();
-        return supplyAsync(() -> {
-            final Channel channel = publishChannel();
-            publish(channel, options, message);
-            return this;
-        }, publishingExecutor);
+        logPublish(options, message);
+        final Message serialized;
+        try {
+            serialized = serializer.serialize(message);
+        } catch (final RuntimeException e) {
+            final CompletableFuture<MessagePublisher> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        return flowControl.acquire(1, serialized.bodyLength())
+                .thenCompose(permit -> publishAccepted(permit, () -> publishSerialized(options, serialized)))
+                .thenApply(it -> this);
     }
 
     @Override
     public <T> CompletionStage<MessagePublisher> publishAll(final MultiPublishOptions<T> options,
             final Collection<T> messages) {
         checkIsRunning();
-        return supplyAsync(() -> {
-            final Channel channel = publishChannel();
-            publishAll(channel, options, messages);
-            return this;
-        }, publishingExecutor);
+        final List<T> accepted = new ArrayList<>(messages.size());
+        final List<Message> serialized = new ArrayList<>(messages.size());
+        long bytes = 0;
+        final Iterator<T> remaining = messages.iterator();
+        while (remaining.hasNext()) {
+            final T message = remaining.next();
+            try {
+                final Message serializedMessage = serializer.serialize(message);
+                accepted.add(message);
+                serialized.add(serializedMessage);
+                bytes += serializedMessage.bodyLength();
+            } catch (final Exception e) {
+                if (!options.shouldContinueOnError(message, e)) {
+                    remaining.forEachRemaining(options::interrupted);
+                }
+            }
+        }
+        return flowControl.acquire(accepted.size(), bytes)
+                .thenCompose(permit -> publishAccepted(permit, () -> publishAll(options, accepted, serialized)))
+                .thenApply(it -> this);
+    }
+
+    private CompletableFuture<Void> publishAccepted(final PublishingFlowControl.Permit permit,
+            final Supplier<CompletableFuture<Void>> publication) {
+        final CompletableFuture<Void> result;
+        try {
+            result = supplyAsync(publication, publishingExecutor)
+                    .thenCompose(confirmation -> confirmation);
+        } catch (final RuntimeException e) {
+            permit.release();
+            throw e;
+        }
+        return result.whenComplete((it, error) -> permit.release());
     }
 
     @Override
-    public <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options, final BlockingQueue<T> messageQueue) {
-        final PublishingWorker<T> worker = new PublishingWorker<>(options, messageQueue, channelFactory);
-        final Thread workerThread = new Thread(worker::run);
-        workerThread.setName("QueuePublishingWorker");
-        workerThread.start();
-        return worker;
+    public <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options, final BlockingQueue<T> messageQueue,
+            final QueuePublishOptions queueOptions) {
+        checkIsRunning();
+        final List<PublishingWorker<T>> workers = IntStream.range(0, queueOptions.workers())
+                .mapToObj(workerNo -> new PublishingWorker<>(options, messageQueue, queueOptions, channelFactory))
+                .collect(toList());
+        workers.forEach(worker -> {
+            final Thread workerThread = new Thread(worker::run);
+            workerThread.setName("QueuePublishingWorker");
+            workerThread.start();
+        });
+        return new PublishingWorkers<>(workers);
     }
 
     @Override
     public void close() {
         checkIsRunning();
         running.set(false);
+        flowControl.close();
         tryCloseChannel();
+        publishingExecutor.shutdown();
     }
 
     private void tryCloseChannel() {
@@ -105,23 +177,54 @@ final class RabbitMessagePublisher implements MessagePublisher {
         checkState(running.get(), "Publisher has been closed");
     }
 
-    private Channel publishChannel() {
-        if (channel == null) {
-            channel = channelFactory.get();
+    private PublishingChannel publishChannel() {
+        if (channel == null || !channel.isOpen()) {
+            channel = PublishingChannel.open(channelFactory, settings.confirmsEnabled(), flowControl);
         }
         return channel;
     }
 
-    private <T> void publish(final Channel channel, final PublishOptions options, final T message) {
-        logPublish(options, message);
+    private CompletableFuture<Void> publishSerialized(final PublishingChannel channel,
+            final PublishOptions options, final Message serialized) {
+        final AMQP.BasicProperties properties = propertiesTemplates.propertiesOf(options, serialized);
+        return channel.publish(options, properties, serialized.body());
+    }
+
+    /**
+     * Publishes message on publisher channel, or appends it to spool when spool is enabled
+     * and message could not be delivered to broker.
+     */
+    private CompletableFuture<Void> publishSerialized(final PublishOptions options, final Message serialized) {
+        if (spool == null) {
+            return publishSerialized(publishChannel(), options, serialized);
+        }
+        final AMQP.BasicProperties properties = propertiesTemplates.propertiesOf(options, serialized);
+        final byte[] body = serialized.body();
+        if (spool.appendIfPending(options, properties, body)) {
+            return completedFuture(null);
+        }
         try {
-            final Message serialized = serializer.serialize(message);
-            final AMQP.BasicProperties properties = messageProperties(options, serialized);
-            channel.basicPublish(options.exchange(), options.routingKey(), options.mandatory(), options.immediate(),
-                    properties, serialized.body());
-        } catch (final IOException e) {
-            throw PublishingException.create(options, e);
+            return publishChannel().publish(options, properties, body)
+                    .handle((result, error) -> spoolIfUnconfirmed(options, properties, body, error));
+        } catch (final ConnectionException | ChannelException | PublishingException | ShutdownSignalException e) {
+            log.warn(String.format("Could not publish message to: '%s', appending it to spool", options.exchange()),
+                    e);
+            spool.append(options, properties, body);
+            return completedFuture(null);
+        }
+    }
+
+    private Void spoolIfUnconfirmed(final PublishOptions options, final AMQP.BasicProperties properties,
+            final byte[] body, final Throwable error) {
+        if (error == null) {
+            return null;
+        }
+        final Exception cause = unwrap(error);
+        if (!(cause instanceof ChannelException)) {
+            throw new CompletionException(cause);
         }
+        spool.append(options, properties, body);
+        return null;
     }
 
     private static <T> void logPublish(final PublishOptions options, final T message) {
@@ -130,69 +233,77 @@ final class RabbitMessagePublisher implements MessagePublisher {
         }
     }
 
-    private <T> void publishAll(final Channel channel, final MultiPublishOptions<T> options,
-            final Collection<T> messages) {
+    private <T> CompletableFuture<Void> publishAll(final MultiPublishOptions<T> options, final List<T> messages,
+            final List<Message> serialized) {
+        final List<CompletableFuture<Void>> confirmations = new ArrayList<>(messages.size());
         boolean interrupted = false;
-        for (final T message : messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            final T message = messages.get(i);
             try {
-                final Message serialized = serializer.serialize(message);
-                final PublishOptions publishOptions = options.optionsOf(message);
                 if (interrupted) {
                     options.interrupted(message);
                 } else if (!running.get()) {
                     options.closed(message);
                 } else {
-                    publish(channel, publishOptions, serialized);
+                    final PublishOptions publishOptions = options.optionsOf(message);
+                    logPublish(publishOptions, message);
+                    final CompletableFuture<Void> confirmation = publishSerialized(publishOptions,
+                            serialized.get(i));
+                    confirmations.add(confirmation.whenComplete((result, error) -> {
+                        if (error != null) {
+                            options.failed(message, unwrap(error));
+                        }
+                    }));
                 }
             } catch (final Exception e) {
                 interrupted = !options.shouldContinueOnError(message, e);
             }
         }
+        return allOf(confirmations.toArray(new CompletableFuture<?>[confirmations.size()]));
+    }
+
+    private static Exception unwrap(final Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
     }
 
     private void closeChannel() {
         if (channel != null) {
-            try {
-                channel.close();
-            } catch (IOException | TimeoutException e) {
-                throw new IllegalStateException("Could not close channel", e);
-            }
+            channel.close();
         }
     }
 
-    private AMQP.BasicProperties messageProperties(final PublishOptions options, final Message message) {
-        final SerializationConfig serialization = config.serialization();
-        return new AMQP.BasicProperties.Builder()
-                .correlationId(options.correlationId())
-                .deliveryMode(options.deliveryMode() != null ?
-                        options.deliveryMode().value() : defaultDeliveryMode())
-                .expiration(Durations.isGreaterThan(options.expirationTime(), Duration.ZERO) ?
-                        Long.toString(options.expirationTime().toMillis()) : null)
-                .priority(options.priority())
-                .replyTo(options.replyTo())
-                .headers(options.headers())
-                .type(serialization.includeContentType() ? message.type() : null)
-                .contentEncoding(serialization.incldeEncoding() ? message.encoding() : null)
-                .contentType(serialization.includeContentType() ? message.contentType() : null)
-                .build();
-    }
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    private static final class PublishingWorkers<T> implements QueuePublisher {
+        private final List<PublishingWorker<T>> workers;
 
-    private int defaultDeliveryMode() {
-        return config.messagePersitanceEnabled() ?
-                DeliveryMode.Persistent.value() : DeliveryMode.NonPersistent.value();
+        @Override
+        public boolean isRunning() {
+            return workers.stream()
+                    .anyMatch(PublishingWorker::isRunning);
+        }
+
+        @Override
+        public void close() {
+            workers.forEach(PublishingWorker::stop);
+            workers.forEach(PublishingWorker::awaitClousure);
+        }
     }
 
     @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
     private class PublishingWorker<T> implements QueuePublisher {
         private final CountDownLatch processingLatch = new CountDownLatch(1);
-        private final AtomicBoolean running = new AtomicBoolean(false);
+        private final AtomicBoolean running = new AtomicBoolean(true);
         private final MultiPublishOptions<T> options;
         private final BlockingQueue<T> queue;
+        private final QueuePublishOptions queueOptions;
         private final Supplier<Channel> channelFactory;
-        private Channel channel;
+        private final List<T> batch = new ArrayList<>();
+        private final RetryTimerWheel<T> retries = new RetryTimerWheel<>();
+        private PublishingChannel channel;
 
         private void run() {
-            running.set(true);
             while (shouldProcess()) {
                 try {
                     readFromQueue();
@@ -201,6 +312,7 @@ final class RabbitMessagePublisher implements MessagePublisher {
                     break;
                 }
             }
+            retries.clear(retry -> options.closed(retry.element()));
             processingLatch.countDown();
         }
 
@@ -209,49 +321,110 @@ final class RabbitMessagePublisher implements MessagePublisher {
         }
 
         private void readFromQueue() throws InterruptedException {
-            T message = null;
-            while ((message = queue.poll(1, SECONDS)) != null) {
-                if (!tryPublish(message)) {
-                    break;
+            final T first = queue.poll(Math.min(SECONDS.toNanos(1), retries.nanosToNextTick()), NANOSECONDS);
+            retries.expire(retry -> tryPublish(retry.element(), retry.attempt()));
+            if (first == null) {
+                return;
+            }
+            batch.add(first);
+            queue.drainTo(batch, queueOptions.maxBatchSize() - 1);
+            awaitBatch();
+            try {
+                batch.forEach(message -> tryPublish(message, 0));
+            } finally {
+                batch.clear();
+            }
+        }
+
+        private void awaitBatch() throws InterruptedException {
+            if (queueOptions.lingerTime().isZero()) {
+                return;
+            }
+            final long deadline = System.nanoTime() + queueOptions.lingerTime().toNanos();
+            long remaining;
+            while (batch.size() < queueOptions.maxBatchSize() && (remaining = deadline - System.nanoTime()) > 0) {
+                final T message = queue.poll(remaining, NANOSECONDS);
+                if (message == null) {
+                    return;
                 }
+                batch.add(message);
+                queue.drainTo(batch, queueOptions.maxBatchSize() - batch.size());
             }
         }
 
-        private Channel publishChannel() {
+        private PublishingChannel publishChannel() {
             if (channel == null || !channel.isOpen()) {
-                channel = channelFactory.get();
+                channel = PublishingChannel.open(channelFactory, settings.confirmsEnabled(), flowControl);
             }
             return channel;
         }
 
-        private boolean tryPublish(final T message) {
+        private void tryPublish(final T message, final int attempt) {
             if (!shouldProcess()) {
-                return false;
+                options.closed(message);
+                return;
             }
+            PublishOptions publishOptions = null;
             try {
-                final Channel channel = publishChannel();
-                final PublishOptions publishOptions = options.optionsOf(message);
-                RabbitMessagePublisher.this.publish(channel, publishOptions, message);
-                return true;
+                final PublishingChannel channel = publishChannel();
+                publishOptions = options.optionsOf(message);
+                logPublish(publishOptions, message);
+                final Message serialized = serializer.serialize(message);
+                final PublishingFlowControl.Permit permit = acquirePermit(serialized);
+                final CompletableFuture<Void> confirmation;
+                try {
+                    confirmation = publishSerialized(channel, publishOptions, serialized);
+                } catch (final RuntimeException e) {
+                    permit.release();
+                    throw e;
+                }
+                confirmation.whenComplete((result, error) -> {
+                    permit.release();
+                    if (error != null) {
+                        options.failed(message, unwrap(error));
+                    }
+                });
             } catch (final Exception e) {
                 if (!options.shouldContinueOnError(message, e)) {
-                    return reschedulePublication(message);
+                    reschedulePublication(message, publishOptions, attempt + 1, e);
                 }
-                return true;
             }
         }
 
-        private boolean reschedulePublication(final T message) {
-            if (!shouldProcess()) {
-                return false;
-            }
+        /**
+         * Acquires publication permit from flow control shared with publisher, waiting while publication
+         * is delayed.
+         */
+        private PublishingFlowControl.Permit acquirePermit(final Message serialized) throws Exception {
             try {
-                log.warn(String.format("Retrying message: '%s' publication in 1000ms", message));
-                Thread.sleep(1000L);
+                return flowControl.acquire(1, serialized.bodyLength()).get();
             } catch (final InterruptedException e) {
-                log.warn("Publish reschedule delay interrupted", e);
+                Thread.currentThread().interrupt();
+                throw new PublisherOverloadedException("Interrupted while waiting for publication permit", e);
+            } catch (final ExecutionException e) {
+                throw unwrap(e.getCause());
             }
-            return tryPublish(message);
+        }
+
+        private void reschedulePublication(final T message, final PublishOptions publishOptions, final int attempt,
+                final Exception error) {
+            if (retries.size() >= queueOptions.retryBudget()) {
+                options.failed(message, publishOptions != null ?
+                        PublishingException.retryBudgetExceeded(publishOptions, error) : error);
+                return;
+            }
+            final long delay = retryDelay(attempt);
+            log.warn(String.format("Retrying message: '%s' publication in %dms", message, NANOSECONDS.toMillis(delay)));
+            retries.schedule(message, attempt, delay);
+        }
+
+        private long retryDelay(final int attempt) {
+            final long initialDelay = queueOptions.retryBackoff().toNanos();
+            final long maxDelay = queueOptions.maxRetryBackoff().toNanos();
+            final boolean overflows = attempt - 1 >= Long.numberOfLeadingZeros(initialDelay) - 1;
+            final long delay = overflows ? maxDelay : Math.min(initialDelay << (attempt - 1), maxDelay);
+            // equal jitter, spreads retries of messages failed at once while keeping half of the backoff
+            return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
         }
 
         @Override
@@ -261,10 +434,14 @@ final class RabbitMessagePublisher implements MessagePublisher {
 
         @Override
         public void close() {
-            running.set(false);
+            stop();
             awaitClousure();
         }
 
+        private void stop() {
+            running.set(false);
+        }
+
         private void awaitClousure() {
             if (processingLatch.getCount() > 0) {
                 try {
@@ -278,4 +455,95 @@ final class RabbitMessagePublisher implements MessagePublisher {
             }
         }
     }
+
+    @NoArgsConstructor(access = AccessLevel.PACKAGE, staticName = "create")
+    @Getter(AccessLevel.PACKAGE)
+    @Accessors(fluent = true)
+    static final class DefaultPublisherConfigurator implements PublisherConfigurator {
+        private boolean confirmsEnabled;
+        private int channels = 1;
+        private PublisherRouting routing = PublisherRouting.RoundRobin;
+        private int maxPendingMessages = 65536;
+        private long maxPendingBytes = 64L * 1024 * 1024;
+        private BackpressureStrategy backpressure = BackpressureStrategy.Block;
+        private Path spoolDirectory;
+        private int spoolSegmentSize = 64 * 1024 * 1024;
+        private SpoolSyncPolicy spoolSyncPolicy = SpoolSyncPolicy.SegmentRoll;
+
+        @Override
+        public PublisherConfigurator withConfirms(final boolean enabled) {
+            confirmsEnabled = enabled;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withChannels(final int channels) {
+            checkArgument(channels > 0, String.format("Invalid channels: %d, expected > 0", channels));
+            this.channels = channels;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withRouting(final PublisherRouting routing) {
+            checkNotNull(routing, "Routing not specified");
+            this.routing = routing;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withMaxPendingMessages(final int maxPendingMessages) {
+            checkArgument(maxPendingMessages > 0,
+                    String.format("Invalid maxPendingMessages: %d, expected > 0", maxPendingMessages));
+            this.maxPendingMessages = maxPendingMessages;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withMaxPendingBytes(final long maxPendingBytes) {
+            checkArgument(maxPendingBytes > 0,
+                    String.format("Invalid maxPendingBytes: %d, expected > 0", maxPendingBytes));
+            this.maxPendingBytes = maxPendingBytes;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withBackpressure(final BackpressureStrategy strategy) {
+            checkNotNull(strategy, "Backpressure strategy not specified");
+            this.backpressure = strategy;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withSpool(final Path directory) {
+            checkNotNull(directory, "Spool directory not specified");
+            this.spoolDirectory = directory;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withSpoolSegmentSize(final int segmentSize) {
+            checkArgument(segmentSize > 0, String.format("Invalid spoolSegmentSize: %d, expected > 0", segmentSize));
+            this.spoolSegmentSize = segmentSize;
+            return this;
+        }
+
+        @Override
+        public PublisherConfigurator withSpoolSync(final SpoolSyncPolicy policy) {
+            checkNotNull(policy, "Spool sync policy not specified");
+            this.spoolSyncPolicy = policy;
+            return this;
+        }
+
+        PublishSpool openSpool(final Supplier<Channel> channelFactory, final Duration retryInterval) {
+            if (spoolDirectory == null) {
+                return null;
+            }
+            return PublishSpool.open(spoolDirectory, spoolSegmentSize, channelFactory, retryInterval,
+                    spoolSyncPolicy);
+        }
+
+        PublishingFlowControl createFlowControl() {
+            return new PublishingFlowControl(maxPendingMessages, maxPendingBytes, backpressure);
+        }
+    }
 }
@@ -1,76 +1,203 @@
 package pl.finder.elmer;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.CompletableFuture.allOf;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.rabbitmq.client.Channel;
 
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
-import pl.finder.elmer.core.AMQPException;
+import pl.finder.elmer.ConsumerChannelPool.PooledChannel;
 import pl.finder.elmer.core.ChannelException;
 import pl.finder.elmer.core.MessageContext;
 import pl.finder.elmer.core.SubscriptionException;
 import pl.finder.elmer.serialization.MessageSerializer;
+import pl.finder.elmer.subscription.AdaptiveConcurrencyOptions;
+import pl.finder.elmer.subscription.BatchSubscribeOptions;
+import pl.finder.elmer.subscription.ConsumptionConfigurator;
 import pl.finder.elmer.subscription.SubscribeOptions;
 import pl.finder.elmer.subscription.Subscription;
 import pl.finder.elmer.subscription.SubscriptionManager;
 
 @Slf4j
 final class RabbitSubscriptionManager implements SubscriptionManager {
+    private static final long ResubscribeDelaySeconds = 5;
+
     private final AtomicBoolean closed = new AtomicBoolean(false);
     private final Set<Subscription> subscriptions = new HashSet<>();
 
     private final MessageSerializer serializer;
     private final Supplier<Channel> channelFactory;
+    private final ForkJoinPool consumptionPool;
+    private final ConsumerChannelPool channelPool;
+    private final boolean sharedChannels;
+    private final Duration drainTimeout;
 
-    RabbitSubscriptionManager(final MessageSerializer serializer, final Supplier<Channel> channelFactory) {
+    RabbitSubscriptionManager(final MessageSerializer serializer, final Supplier<Channel> channelFactory,
+            final DefaultConsumptionConfigurator settings) {
         this.serializer = serializer;
         this.channelFactory = channelFactory;
+        this.consumptionPool = ConsumptionExecutors.createSharedPool(settings.threads());
+        this.channelPool = new ConsumerChannelPool(channelFactory, settings.consumersPerChannel());
+        this.sharedChannels = settings.consumersPerChannel() > 1;
+        this.drainTimeout = settings.drainTimeout();
     }
 
     @Override
     public <T> Subscription subscribe(final SubscribeOptions<T> options, final Consumer<MessageContext<T>> consumer) {
+        return subscribe(options, (executor, ackCoalescer, inFlight) -> consumer);
+    }
+
+    @Override
+    public <T> Subscription subscribeBatch(final SubscribeOptions<T> options, final BatchSubscribeOptions batchOptions,
+            final Consumer<List<MessageContext<T>>> consumer) {
+        final int initialPrefetch = withInitialConcurrency(options).prefetchCount();
+        checkArgument(initialPrefetch == 0 || initialPrefetch >= batchOptions.maxBatchSize(),
+                String.format("Invalid prefetchCount: %d, expected 0 or >= maxBatchSize: %d",
+                        initialPrefetch, batchOptions.maxBatchSize()));
+        final SubscribeOptions<T> batchAckOptions = options.with()
+                .ackBatchSize(Math.max(options.ackBatchSize(), batchOptions.maxBatchSize()))
+                .build();
+        return subscribe(batchAckOptions, (executor, ackCoalescer, inFlight) ->
+                new BatchingConsumer<>(batchAckOptions, batchOptions, executor, ackCoalescer, inFlight, consumer));
+    }
+
+    @Override
+    public <T> Subscription subscribeAsync(final SubscribeOptions<T> options, final int maxInFlight,
+            final Function<MessageContext<T>, CompletionStage<?>> handler) {
+        checkArgument(maxInFlight > 0, String.format("Invalid maxInFlight: %d, expected > 0", maxInFlight));
+        return subscribe(options, (executor, ackCoalescer, inFlight) ->
+                new AsyncConsumer<>(options, maxInFlight, inFlight, handler));
+    }
+
+    private <T> Subscription subscribe(final SubscribeOptions<T> requestedOptions,
+            final ConsumerFactory<T> consumerFactory) {
         checkState(!closed.get(), "MessageBus has been closed");
+        final SubscribeOptions<T> options = withInitialConcurrency(requestedOptions);
         final Map<String, Object> arguments = ImmutableMap.of();
-        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                .setNameFormat(String.format("%s-ConsumptionThread", options.queue()) + "-%s")
-                .build();
-        final Executor executor = Executors.newFixedThreadPool(options.concurrentThreadsLimit(), threadFactory);
-        final Channel channel = channelFactory.get();
+        final SubscriptionExecutor executor = ConsumptionExecutors.create(options, consumptionPool);
+        if (sharedChannels && isShareable(options)) {
+            return subscribeShared(options, executor, consumerFactory);
+        }
+        final Channel channel;
         try {
-            final InternalConsumer<T> callback = new InternalConsumer<>(
-                    channel, executor, options, serializer, consumer);
+            channel = channelFactory.get();
+        } catch (final RuntimeException e) {
+            executor.close();
+            throw e;
+        }
+        final AdaptiveConcurrencyController concurrencyController = options.adaptiveConcurrency() != null ?
+                AdaptiveConcurrencyController.create(options, executor, channel, channelFactory) : null;
+        try {
+            if (options.prefetchCount() > 0 || options.prefetchSize() > 0) {
+                // adaptive prefetch is changed while consumer runs, which only channel wide prefetch allows
+                channel.basicQos(options.prefetchSize(), options.prefetchCount(), concurrencyController != null);
+            }
+            final AckCoalescer ackCoalescer = createAckCoalescer(channel, options);
+            final InFlightCounter inFlight = new InFlightCounter();
+            final Consumer<MessageContext<T>> consumer = consumerFactory.create(executor, ackCoalescer, inFlight);
+            final InternalConsumer<T> callback = new InternalConsumer<>(channel, executor, options, serializer,
+                    ackCoalescer, new RetryQueues(channelPool, options.queue()), inFlight,
+                    concurrencyController != null ? concurrencyController.measured(consumer) : consumer);
             final String consumerTag = channel.basicConsume(options.queue(), options.autoAckEnabled(),
                     options.consumerTag(), options.noLocal(), options.exclusive(), arguments, callback);
+            if (concurrencyController != null) {
+                concurrencyController.start();
+            }
             final Subscription subscription =  new DefaultSubscription(consumerTag,
-                    callback::getConsumerTag, callback::getChannel, this::removeSubscription);
+                    callback::getConsumerTag, callback::getChannel, callback, executor, concurrencyController,
+                    drainTimeout, this::removeSubscription);
             addSubscription(subscription);
             return subscription;
         } catch (final IOException e) {
+            if (concurrencyController != null) {
+                concurrencyController.close();
+            }
             tryClose(channel);
+            executor.close();
+            throw SubscriptionException.create(options, e);
+        }
+    }
+
+    /**
+     * Checks if subscription may consume on shared channel, where waiting for free space in its dispatch buffer
+     * would stall other consumers of the channel. Only subscriptions acknowledging manually are shared, as their
+     * dispatch buffer holds all deliveries allowed by per consumer prefetch, and adaptive ones which change
+     * channel wide prefetch are not.
+     */
+    /**
+     * Checks whether subscription may use shared channel. Multiple acks would settle deliveries of other consumers
+     * of shared channel, so subscriptions coalescing acks, including batch subscriptions, use dedicated channels.
+     */
+    private static boolean isShareable(final SubscribeOptions<?> options) {
+        return !options.autoAckEnabled() && options.adaptiveConcurrency() == null
+                && options.effectiveAckBatchSize() <= 1;
+    }
+
+    private <T> Subscription subscribeShared(final SubscribeOptions<T> options, final SubscriptionExecutor executor,
+            final ConsumerFactory<T> consumerFactory) {
+        final SharedChannelSubscription<T> subscription = new SharedChannelSubscription<>(options, executor,
+                consumerFactory);
+        try {
+            subscription.consume();
+        } catch (final IOException e) {
+            executor.close();
             throw SubscriptionException.create(options, e);
+        } catch (final RuntimeException e) {
+            executor.close();
+            throw e;
+        }
+        addSubscription(subscription);
+        return subscription;
+    }
+
+    private static <T> SubscribeOptions<T> withInitialConcurrency(final SubscribeOptions<T> options) {
+        final AdaptiveConcurrencyOptions adaptiveConcurrency = options.adaptiveConcurrency();
+        if (adaptiveConcurrency == null) {
+            return options;
+        }
+        return options.with()
+                .concurrentThreadsLimit(adaptiveConcurrency.minThreads())
+                .prefetchCount(adaptiveConcurrency.prefetchFor(adaptiveConcurrency.minThreads()))
+                .build();
+    }
+
+    private static AckCoalescer createAckCoalescer(final Channel channel, final SubscribeOptions<?> options) {
+        if (options.autoAckEnabled() || options.effectiveAckBatchSize() <= 1) {
+            return null;
         }
+        return AckCoalescer.create(channel, options.effectiveAckBatchSize(), options.ackFlushInterval());
     }
 
     void close() {
         closed.set(true);
         closeAllSubscriptions();
+        channelPool.close();
+        consumptionPool.shutdown();
     }
 
     private void addSubscription(final Subscription subscription) {
@@ -90,7 +217,12 @@ final class RabbitSubscriptionManager implements SubscriptionManager {
         synchronized (subscriptions) {
             toClose = ImmutableSet.copyOf(subscriptions);
         }
-        toClose.forEach(RabbitSubscriptionManager::tryCloseSubscription);
+        // subscriptions are drained in parallel, so closing takes at most single drain timeout
+        allOf(toClose.stream()
+                .map(subscription -> CompletableFuture.runAsync(() -> tryCloseSubscription(subscription),
+                        ConsumptionExecutors.controlExecutor()))
+                .toArray(CompletableFuture<?>[]::new))
+                .join();
         synchronized (subscriptions) {
             subscriptions.removeAll(toClose);
         }
@@ -99,7 +231,7 @@ final class RabbitSubscriptionManager implements SubscriptionManager {
     private static void tryCloseSubscription(final Subscription subscription) {
         try {
             subscription.close();
-        } catch (final AMQPException e) {
+        } catch (final RuntimeException e) {
             log.error(String.format("Could not close subscription: '%s'", subscription.consumerTag()), e);
         }
     }
@@ -112,11 +244,20 @@ final class RabbitSubscriptionManager implements SubscriptionManager {
         }
     }
 
+    @FunctionalInterface
+    private interface ConsumerFactory<T> {
+        Consumer<MessageContext<T>> create(Executor executor, AckCoalescer ackCoalescer, InFlightCounter inFlight);
+    }
+
     @AllArgsConstructor(access = AccessLevel.PRIVATE)
     private static class DefaultSubscription implements Subscription {
         private final String initialConsumerTag;
         private final Supplier<String> consumerTag;
         private final Supplier<Channel> channel;
+        private final InternalConsumer<?> consumer;
+        private final SubscriptionExecutor executor;
+        private final AdaptiveConcurrencyController concurrencyController;
+        private final Duration drainTimeout;
         private final Consumer<Subscription> onClose;
 
         @Override
@@ -127,11 +268,22 @@ final class RabbitSubscriptionManager implements SubscriptionManager {
 
         @Override
         public void close() {
+            close(drainTimeout);
+        }
+
+        @Override
+        public void close(final Duration timeout) {
+            final long deadline = System.nanoTime() + timeout.toNanos();
             final Channel subscriptionChannel = channel.get();
+            if (concurrencyController != null) {
+                concurrencyController.close();
+            }
             try {
                 if (subscriptionChannel != null && subscriptionChannel.isOpen()) {
+                    consumer.drain(deadline);
                     subscriptionChannel.close();
                 }
+                executor.close();
                 onClose.accept(this);
             } catch (IOException | TimeoutException e) {
                 throw new ChannelException(
@@ -140,4 +292,139 @@ final class RabbitSubscriptionManager implements SubscriptionManager {
         }
 
     }
+
+    /**
+     * Subscription consuming on channel shared with other subscriptions. Deliveries are acked individually,
+     * as multiple ack on shared channel would cover deliveries of other consumers. When shared channel is closed
+     * by channel error subscription consumes again on another channel, deliveries which has not been
+     * acknowledged on closed channel are redelivered by broker.
+     */
+    private final class SharedChannelSubscription<T> implements Subscription {
+        private final Runnable onChannelFailure = this::resubscribe;
+        private final SubscribeOptions<T> options;
+        private final SubscriptionExecutor executor;
+        private final RetryQueues retryQueues;
+        private final ConsumerFactory<T> consumerFactory;
+        private final InFlightCounter inFlight = new InFlightCounter();
+        private PooledChannel pooled;
+        private InternalConsumer<T> consumer;
+        private String consumerTag;
+        private boolean closed;
+
+        private SharedChannelSubscription(final SubscribeOptions<T> options, final SubscriptionExecutor executor,
+                final ConsumerFactory<T> consumerFactory) {
+            this.options = options;
+            this.executor = executor;
+            this.consumerFactory = consumerFactory;
+            this.retryQueues = new RetryQueues(channelPool, options.queue());
+        }
+
+        private synchronized void consume() throws IOException {
+            // missing queue closes channel, so it is checked on side channel instead of shared one
+            channelPool.sideChannel().queueDeclarePassive(options.queue());
+            final PooledChannel acquired = channelPool.acquire(onChannelFailure);
+            final Channel channel = acquired.channel();
+            try {
+                final InternalConsumer<T> callback = new InternalConsumer<>(channel, executor, options, serializer,
+                        null, retryQueues, inFlight, consumerFactory.create(executor, null, inFlight));
+                final String tag;
+                synchronized (acquired) {
+                    // per consumer prefetch applies to consumers started after it has been set
+                    channel.basicQos(options.prefetchSize(), options.prefetchCount(), false);
+                    tag = channel.basicConsume(options.queue(), options.autoAckEnabled(), options.consumerTag(),
+                            options.noLocal(), options.exclusive(), ImmutableMap.of(), callback);
+                }
+                pooled = acquired;
+                consumer = callback;
+                consumerTag = tag;
+            } catch (final IOException | RuntimeException e) {
+                channelPool.release(acquired, onChannelFailure);
+                throw e;
+            }
+        }
+
+        private synchronized void resubscribe() {
+            if (closed || pooled != null && pooled.channel().isOpen()) {
+                return;
+            }
+            if (pooled != null) {
+                channelPool.release(pooled, onChannelFailure);
+                pooled = null;
+            }
+            try {
+                consume();
+                log.info(String.format("Consumer of queue: '%s' moved to another channel", options.queue()));
+            } catch (final IOException | RuntimeException e) {
+                options.onError(SubscriptionException.create(options, e));
+                ConsumptionExecutors.scheduler().schedule(
+                        () -> ConsumptionExecutors.controlExecutor().execute(this::resubscribe),
+                        ResubscribeDelaySeconds, TimeUnit.SECONDS);
+            }
+        }
+
+        @Override
+        public synchronized String consumerTag() {
+            return consumerTag;
+        }
+
+        @Override
+        public void close() {
+            close(drainTimeout);
+        }
+
+        @Override
+        public void close(final Duration timeout) {
+            final long deadline = System.nanoTime() + timeout.toNanos();
+            final PooledChannel released;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                released = pooled;
+                pooled = null;
+            }
+            try {
+                consumer.drain(deadline);
+            } finally {
+                if (released != null) {
+                    channelPool.release(released, onChannelFailure);
+                }
+                executor.close();
+                removeSubscription(this);
+            }
+        }
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PACKAGE, staticName = "create")
+    @Getter(AccessLevel.PACKAGE)
+    @Accessors(fluent = true)
+    static final class DefaultConsumptionConfigurator implements ConsumptionConfigurator {
+        private int threads = 2 * Runtime.getRuntime().availableProcessors();
+        private int consumersPerChannel = 1;
+        private Duration drainTimeout = Duration.ofSeconds(30);
+
+        @Override
+        public ConsumptionConfigurator withThreads(final int threads) {
+            checkArgument(threads > 0, String.format("Invalid threads: %d, expected > 0", threads));
+            this.threads = threads;
+            return this;
+        }
+
+        @Override
+        public ConsumptionConfigurator withConsumersPerChannel(final int consumersPerChannel) {
+            checkArgument(consumersPerChannel > 0,
+                    String.format("Invalid consumersPerChannel: %d, expected > 0", consumersPerChannel));
+            this.consumersPerChannel = consumersPerChannel;
+            return this;
+        }
+
+        @Override
+        public ConsumptionConfigurator withDrainTimeout(final Duration drainTimeout) {
+            checkArgument(drainTimeout != null && !drainTimeout.isNegative(),
+                    String.format("Invalid drainTimeout: %s, expected >= 0", drainTimeout));
+            this.drainTimeout = drainTimeout;
+            return this;
+        }
+    }
 }
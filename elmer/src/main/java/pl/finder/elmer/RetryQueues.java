@@ -0,0 +1,83 @@
+package pl.finder.elmer;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.AMQP;
+
+import pl.finder.elmer.core.ChannelException;
+import pl.finder.elmer.serialization.Message;
+
+/**
+ * Retry queues of subscription queue, one per retry delay, named: &lt;queue&gt;.retry.&lt;delay millis&gt;.
+ * Messages expire in retry queue after delay and are dead-lettered back to subscription queue
+ * through default exchange. Retry queues are declared on first use and deleted by broker when they have not
+ * been declared for delay plus two refresh intervals, so retry queues of unused delays do not pile up.
+ * Retry queue in use is redeclared at least once per refresh interval, so it outlives all its messages.
+ */
+final class RetryQueues {
+    private static final String RetryInfix = ".retry.";
+    private static final long RefreshIntervalMillis = TimeUnit.MINUTES.toMillis(1);
+
+    private final Map<Long, Long> declaredAt = new ConcurrentHashMap<>();
+    private final ConsumerChannelPool channels;
+    private final String queue;
+
+    RetryQueues(final ConsumerChannelPool channels, final String queue) {
+        this.channels = channels;
+        this.queue = queue;
+    }
+
+    /**
+     * Publishes message to retry queue of given delay on side channel and waits until broker confirms it,
+     * so message can be acknowledged afterwards.
+     *
+     * @param delay retry delay
+     * @param properties message properties
+     * @param message serialized message
+     */
+    void publish(final Duration delay, final AMQP.BasicProperties properties, final Message message) {
+        final String retryQueue = declare(delay.toMillis());
+        try {
+            channels.publishConfirmed("", retryQueue, properties, bodyOf(message));
+        } catch (final ChannelException e) {
+            // retry queue may have been deleted, it is declared again on next retry
+            declaredAt.remove(delay.toMillis());
+            throw e;
+        }
+    }
+
+    private String declare(final long delayMillis) {
+        final String retryQueue = queue + RetryInfix + delayMillis;
+        final long now = System.currentTimeMillis();
+        final Long lastDeclared = declaredAt.get(delayMillis);
+        if (lastDeclared != null && now - lastDeclared < RefreshIntervalMillis) {
+            return retryQueue;
+        }
+        final Map<String, Object> arguments = ImmutableMap.of(
+                "x-message-ttl", delayMillis,
+                "x-expires", delayMillis + 2 * RefreshIntervalMillis,
+                "x-dead-letter-exchange", "",
+                "x-dead-letter-routing-key", queue);
+        try {
+            channels.sideChannel().queueDeclare(retryQueue, true, false, false, arguments);
+        } catch (final IOException e) {
+            throw new ChannelException(String.format("Could not declare retry queue: '%s'", retryQueue), e);
+        }
+        declaredAt.put(delayMillis, now);
+        return retryQueue;
+    }
+
+    private static byte[] bodyOf(final Message message) {
+        final byte[] body = message.bodyArray();
+        if (message.bodyOffset() == 0 && message.bodyLength() == body.length) {
+            return body;
+        }
+        return Arrays.copyOfRange(body, message.bodyOffset(), message.bodyOffset() + message.bodyLength());
+    }
+}
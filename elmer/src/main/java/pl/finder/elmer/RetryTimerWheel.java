@@ -0,0 +1,133 @@
+package pl.finder.elmer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.experimental.Accessors;
+
+/**
+ * Hashed timer wheel holding elements awaiting retry.
+ * Not thread safe, it is meant to be owned and advanced by single publishing worker thread,
+ * so scheduling and expiring elements does not require any locking or additional threads.
+ *
+ * @param <E> type of scheduled elements
+ */
+final class RetryTimerWheel<E> {
+    private static final long TickNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int WheelSize = 512;
+    private static final int WheelMask = WheelSize - 1;
+
+    private final Deque<Timeout<E>>[] wheel;
+    private final long startTime;
+    private long currentTick;
+    private int size;
+
+    RetryTimerWheel() {
+        wheel = newWheel();
+        for (int i = 0; i < WheelSize; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        startTime = System.nanoTime();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> Deque<Timeout<E>>[] newWheel() {
+        return (Deque<Timeout<E>>[]) new Deque<?>[WheelSize];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Schedules element to expire after given delay.
+     *
+     * @param element scheduled element
+     * @param attempt number of attempt element is scheduled for
+     * @param delayNanos delay in nanoseconds
+     */
+    void schedule(final E element, final int attempt, final long delayNanos) {
+        final long deadline = System.nanoTime() - startTime + Math.max(delayNanos, 0);
+        final long deadlineTick = Math.max((deadline + TickNanos - 1) / TickNanos, currentTick + 1);
+        wheel[(int) (deadlineTick & WheelMask)].add(new Timeout<>(element, attempt, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Advances wheel to current time passing expired elements to given consumer.
+     * Consumer may schedule elements again.
+     *
+     * @param expired consumer of expired elements
+     */
+    void expire(final Consumer<Timeout<E>> expired) {
+        final long targetTick = (System.nanoTime() - startTime) / TickNanos;
+        if (size == 0) {
+            currentTick = Math.max(currentTick, targetTick);
+            return;
+        }
+        final List<Timeout<E>> expiredTimeouts = new ArrayList<>();
+        while (currentTick < targetTick && expiredTimeouts.size() < size) {
+            currentTick++;
+            final Iterator<Timeout<E>> slot = wheel[(int) (currentTick & WheelMask)].iterator();
+            while (slot.hasNext()) {
+                final Timeout<E> timeout = slot.next();
+                if (timeout.deadlineTick <= currentTick) {
+                    slot.remove();
+                    expiredTimeouts.add(timeout);
+                }
+            }
+        }
+        size -= expiredTimeouts.size();
+        expiredTimeouts.forEach(expired);
+    }
+
+    /**
+     * Returns time in nanoseconds until next wheel tick, or Long.MAX_VALUE when wheel is empty.
+     *
+     * @return nanoseconds to next tick
+     */
+    long nanosToNextTick() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        final long nextTickTime = startTime + (currentTick + 1) * TickNanos;
+        return Math.max(nextTickTime - System.nanoTime(), 0);
+    }
+
+    /**
+     * Removes all scheduled elements passing them to given consumer.
+     *
+     * @param removed consumer of removed elements
+     */
+    void clear(final Consumer<Timeout<E>> removed) {
+        for (final Deque<Timeout<E>> slot : wheel) {
+            Timeout<E> timeout;
+            while ((timeout = slot.poll()) != null) {
+                size--;
+                removed.accept(timeout);
+            }
+        }
+    }
+
+    @RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+    @Getter
+    @Accessors(fluent = true)
+    static final class Timeout<E> {
+        private final E element;
+        private final int attempt;
+        @Getter(AccessLevel.NONE)
+        private final long deadlineTick;
+    }
+}
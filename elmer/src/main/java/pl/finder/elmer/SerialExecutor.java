@@ -0,0 +1,52 @@
+package pl.finder.elmer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executor running tasks one at a time in submission order on delegate executor.
+ * Occupies delegate thread only while it has pending tasks, after quantum tasks it yields thread by resubmitting
+ * itself to delegate.
+ */
+@Slf4j
+final class SerialExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Executor delegate;
+    private final int quantum;
+
+    SerialExecutor(final Executor delegate, final int quantum) {
+        this.delegate = delegate;
+        this.quantum = quantum;
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        tasks.add(task);
+        if (pending.getAndIncrement() == 0) {
+            delegate.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        for (int run = 1; ; run++) {
+            final Runnable task = tasks.poll();
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                log.error("Unhandled error in serial task", e);
+            }
+            if (pending.decrementAndGet() == 0) {
+                return;
+            }
+            if (run >= quantum) {
+                delegate.execute(this::drain);
+                return;
+            }
+        }
+    }
+}
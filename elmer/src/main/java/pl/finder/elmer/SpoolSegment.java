@@ -0,0 +1,144 @@
+package pl.finder.elmer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import lombok.Getter;
+import lombok.experimental.Accessors;
+
+/**
+ * Append only spool segment file mapped into memory.
+ * Each record is preceded by its length, zero length marks end of written records.
+ * Record length is written after record itself, so partially written record is never read.
+ * Not thread safe.
+ */
+@Accessors(fluent = true)
+final class SpoolSegment {
+    private static final int LengthSize = Integer.BYTES;
+
+    @Getter
+    private final long id;
+    private final Path file;
+    private final MappedByteBuffer buffer;
+    private int writePosition;
+    private int readPosition;
+
+    private SpoolSegment(final long id, final Path file, final MappedByteBuffer buffer) {
+        this.id = id;
+        this.file = file;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates new segment file.
+     *
+     * @param id segment id, segments are replayed in order of ids
+     * @param file segment file
+     * @param size segment file size
+     * @return created segment
+     * @throws IOException when segment file could not be created
+     */
+    static SpoolSegment create(final long id, final Path file, final int size) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new SpoolSegment(id, file, channel.map(MapMode.READ_WRITE, 0, size));
+        }
+    }
+
+    /**
+     * Opens existing segment file, left by previous spool instance.
+     *
+     * @param id segment id
+     * @param file segment file
+     * @return opened segment
+     * @throws IOException when segment file could not be opened
+     */
+    static SpoolSegment open(final long id, final Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, channel.size());
+            final SpoolSegment segment = new SpoolSegment(id, file, buffer);
+            segment.writePosition = segment.findEnd();
+            return segment;
+        }
+    }
+
+    /**
+     * Appends record if it fits into segment.
+     *
+     * @param record appended record
+     * @return true if record has been appended
+     */
+    boolean tryAppend(final byte[] record) {
+        final int end = writePosition + LengthSize + record.length;
+        if (record.length == 0 || end + LengthSize > buffer.capacity()) {
+            return false;
+        }
+        final ByteBuffer target = buffer.duplicate();
+        target.position(writePosition + LengthSize);
+        target.put(record);
+        buffer.putInt(writePosition, record.length);
+        writePosition = end;
+        return true;
+    }
+
+    /**
+     * Reads next record.
+     *
+     * @return next record or null when all written records has been read
+     */
+    ByteBuffer readNext() {
+        if (readPosition >= writePosition) {
+            return null;
+        }
+        final int length = buffer.getInt(readPosition);
+        final ByteBuffer record = buffer.duplicate();
+        record.limit(readPosition + LengthSize + length);
+        record.position(readPosition + LengthSize);
+        readPosition += LengthSize + length;
+        return record.slice();
+    }
+
+    /**
+     * Restarts reading from first record.
+     */
+    void rewind() {
+        readPosition = 0;
+    }
+
+    /**
+     * Forces written records to disk.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    boolean isEmpty() {
+        return writePosition == 0;
+    }
+
+    boolean isFullyRead() {
+        return readPosition >= writePosition;
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    private int findEnd() {
+        int position = 0;
+        while (position + LengthSize <= buffer.capacity()) {
+            final int length = buffer.getInt(position);
+            if (length <= 0 || position + LengthSize + length > buffer.capacity()) {
+                break;
+            }
+            position += LengthSize + length;
+        }
+        return position;
+    }
+}
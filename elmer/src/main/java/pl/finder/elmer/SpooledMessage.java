@@ -0,0 +1,282 @@
+package pl.finder.elmer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.LongString;
+import com.rabbitmq.client.impl.LongStringHelper;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.experimental.Accessors;
+import pl.finder.elmer.publication.PublishOptions;
+
+/**
+ * Message stored in publish spool: destination, properties and body of serialized message.
+ * Headers are encoded as AMQP field table, each value tagged with its field type.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@Getter
+@Accessors(fluent = true)
+final class SpooledMessage {
+    private final PublishOptions options;
+    private final AMQP.BasicProperties properties;
+    private final byte[] body;
+
+    /**
+     * Encodes message to spool record.
+     *
+     * @param options publish options
+     * @param properties message properties
+     * @param body message body
+     * @return encoded record
+     */
+    static byte[] encode(final PublishOptions options, final AMQP.BasicProperties properties, final byte[] body) {
+        final ByteArrayOutputStream record = new ByteArrayOutputStream(body.length + 256);
+        try (final DataOutputStream output = new DataOutputStream(record)) {
+            output.writeUTF(options.exchange());
+            writeString(output, options.routingKey());
+            output.writeBoolean(options.mandatory());
+            output.writeBoolean(options.immediate());
+            writeString(output, properties.getContentType());
+            writeString(output, properties.getContentEncoding());
+            writeHeaders(output, properties.getHeaders());
+            writeInteger(output, properties.getDeliveryMode());
+            writeInteger(output, properties.getPriority());
+            writeString(output, properties.getCorrelationId());
+            writeString(output, properties.getReplyTo());
+            writeString(output, properties.getExpiration());
+            writeString(output, properties.getMessageId());
+            output.writeBoolean(properties.getTimestamp() != null);
+            if (properties.getTimestamp() != null) {
+                output.writeLong(properties.getTimestamp().getTime());
+            }
+            writeString(output, properties.getType());
+            writeString(output, properties.getUserId());
+            writeString(output, properties.getAppId());
+            output.writeInt(body.length);
+            output.write(body);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not encode spooled message", e);
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * Decodes message from spool record.
+     *
+     * @param record encoded record
+     * @return decoded message
+     */
+    static SpooledMessage decode(final ByteBuffer record) {
+        final byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        try (final DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            final PublishOptions options = PublishOptions.builder()
+                    .exchange(input.readUTF())
+                    .routingKey(readString(input))
+                    .mandatory(input.readBoolean())
+                    .immediate(input.readBoolean())
+                    .build();
+            final AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                    .contentType(readString(input))
+                    .contentEncoding(readString(input))
+                    .headers(readHeaders(input))
+                    .deliveryMode(readInteger(input))
+                    .priority(readInteger(input))
+                    .correlationId(readString(input))
+                    .replyTo(readString(input))
+                    .expiration(readString(input))
+                    .messageId(readString(input))
+                    .timestamp(input.readBoolean() ? new Date(input.readLong()) : null)
+                    .type(readString(input))
+                    .userId(readString(input))
+                    .appId(readString(input))
+                    .build();
+            final byte[] body = new byte[input.readInt()];
+            input.readFully(body);
+            return new SpooledMessage(options, properties, body);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Could not decode spooled message", e);
+        }
+    }
+
+    private static void writeString(final DataOutput output, final String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readString(final DataInput input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    private static void writeInteger(final DataOutput output, final Integer value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeInt(value);
+        }
+    }
+
+    private static Integer readInteger(final DataInput input) throws IOException {
+        return input.readBoolean() ? input.readInt() : null;
+    }
+
+    private static void writeHeaders(final DataOutput output, final Map<String, Object> headers)
+            throws IOException {
+        if (headers == null || headers.isEmpty()) {
+            output.writeInt(-1);
+            return;
+        }
+        writeTable(output, headers);
+    }
+
+    private static Map<String, Object> readHeaders(final DataInput input) throws IOException {
+        final int size = input.readInt();
+        return size >= 0 ? readTable(input, size) : null;
+    }
+
+    private static void writeTable(final DataOutput output, final Map<?, ?> table) throws IOException {
+        output.writeInt(table.size());
+        for (final Map.Entry<?, ?> entry : table.entrySet()) {
+            writeBytes(output, entry.getKey().toString().getBytes(StandardCharsets.UTF_8));
+            writeValue(output, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> readTable(final DataInput input, final int size) throws IOException {
+        final Map<String, Object> table = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            table.put(new String(readBytes(input), StandardCharsets.UTF_8), readValue(input));
+        }
+        return table;
+    }
+
+    private static void writeValue(final DataOutput output, final Object value) throws IOException {
+        if (value == null) {
+            output.writeByte('V');
+        } else if (value instanceof String) {
+            output.writeByte('S');
+            writeBytes(output, ((String) value).getBytes(StandardCharsets.UTF_8));
+        } else if (value instanceof LongString) {
+            output.writeByte('x');
+            writeBytes(output, ((LongString) value).getBytes());
+        } else if (value instanceof byte[]) {
+            output.writeByte('B');
+            writeBytes(output, (byte[]) value);
+        } else if (value instanceof Integer) {
+            output.writeByte('I');
+            output.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            output.writeByte('l');
+            output.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            output.writeByte('s');
+            output.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            output.writeByte('b');
+            output.writeByte((Byte) value);
+        } else if (value instanceof Double) {
+            output.writeByte('d');
+            output.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            output.writeByte('f');
+            output.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            output.writeByte('t');
+            output.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            output.writeByte('D');
+            output.writeInt(((BigDecimal) value).scale());
+            writeBytes(output, ((BigDecimal) value).unscaledValue().toByteArray());
+        } else if (value instanceof Date) {
+            output.writeByte('T');
+            output.writeLong(((Date) value).getTime());
+        } else if (value instanceof Map) {
+            output.writeByte('F');
+            writeTable(output, (Map<?, ?>) value);
+        } else if (value instanceof List || value instanceof Object[]) {
+            final List<?> values = value instanceof List ? (List<?>) value : Arrays.asList((Object[]) value);
+            output.writeByte('A');
+            output.writeInt(values.size());
+            for (final Object element : values) {
+                writeValue(output, element);
+            }
+        } else {
+            throw new IOException(String.format("Unsupported header value type: %s", value.getClass().getName()));
+        }
+    }
+
+    private static Object readValue(final DataInput input) throws IOException {
+        final char type = (char) input.readByte();
+        switch (type) {
+            case 'V':
+                return null;
+            case 'S':
+                return new String(readBytes(input), StandardCharsets.UTF_8);
+            case 'x':
+                return LongStringHelper.asLongString(readBytes(input));
+            case 'B':
+                return readBytes(input);
+            case 'I':
+                return input.readInt();
+            case 'l':
+                return input.readLong();
+            case 's':
+                return input.readShort();
+            case 'b':
+                return input.readByte();
+            case 'd':
+                return input.readDouble();
+            case 'f':
+                return input.readFloat();
+            case 't':
+                return input.readBoolean();
+            case 'D':
+                final int scale = input.readInt();
+                return new BigDecimal(new BigInteger(readBytes(input)), scale);
+            case 'T':
+                return new Date(input.readLong());
+            case 'F':
+                return readTable(input, input.readInt());
+            case 'A':
+                final int size = input.readInt();
+                final List<Object> values = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(readValue(input));
+                }
+                return values;
+            default:
+                throw new IOException(String.format("Unknown header value type: '%s'", type));
+        }
+    }
+
+    private static void writeBytes(final DataOutput output, final byte[] bytes) throws IOException {
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(final DataInput input) throws IOException {
+        final byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
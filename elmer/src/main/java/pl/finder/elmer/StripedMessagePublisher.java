@@ -0,0 +1,102 @@
+package pl.finder.elmer;
+
+import static java.util.concurrent.CompletableFuture.allOf;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+
+import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.commons.MultimapCollectors;
+import pl.finder.elmer.publication.MessagePublisher;
+import pl.finder.elmer.publication.MultiPublishOptions;
+import pl.finder.elmer.publication.PublishOptions;
+import pl.finder.elmer.publication.PublisherRouting;
+import pl.finder.elmer.publication.QueuePublishOptions;
+import pl.finder.elmer.publication.QueuePublisher;
+
+/**
+ * Publisher spreading messages across multiple single threaded publishers, each owning its own channel.
+ */
+@Slf4j
+final class StripedMessagePublisher implements MessagePublisher {
+    private final AtomicInteger nextLane = new AtomicInteger();
+    private final List<MessagePublisher> lanes;
+    private final PublisherRouting routing;
+
+    StripedMessagePublisher(final List<? extends MessagePublisher> lanes, final PublisherRouting routing) {
+        this.lanes = ImmutableList.copyOf(lanes);
+        this.routing = routing;
+    }
+
+    @Override
+    public <T> CompletionStage<MessagePublisher> publish(final PublishOptions options, final T message) {
+        return laneOf(options.routingKey()).publish(options, message)
+                .thenApply(it -> this);
+    }
+
+    @Override
+    public <T> CompletionStage<MessagePublisher> publishAll(final MultiPublishOptions<T> options,
+            final Collection<T> messages) {
+        if (routing == PublisherRouting.RoundRobin) {
+            return nextLane().publishAll(options, messages)
+                    .thenApply(it -> this);
+        }
+        final Multimap<Integer, T> messagesByLane = messages.stream()
+                .collect(MultimapCollectors.toMultimap(message -> laneNo(options.optionsOf(message).routingKey())));
+        final CompletableFuture<?>[] publications = messagesByLane.asMap().entrySet().stream()
+                .map(entry -> publishAll(entry, options))
+                .toArray(CompletableFuture<?>[]::new);
+        return allOf(publications)
+                .thenApply(it -> this);
+    }
+
+    private <T> CompletableFuture<MessagePublisher> publishAll(final Entry<Integer, Collection<T>> laneMessages,
+            final MultiPublishOptions<T> options) {
+        return lanes.get(laneMessages.getKey()).publishAll(options, laneMessages.getValue())
+                .toCompletableFuture();
+    }
+
+    @Override
+    public <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options, final BlockingQueue<T> messageQueue,
+            final QueuePublishOptions queueOptions) {
+        return nextLane().publishFrom(options, messageQueue, queueOptions);
+    }
+
+    @Override
+    public void close() {
+        lanes.forEach(StripedMessagePublisher::tryClose);
+    }
+
+    private MessagePublisher laneOf(final String routingKey) {
+        if (routing == PublisherRouting.RoundRobin) {
+            return nextLane();
+        }
+        return lanes.get(laneNo(routingKey));
+    }
+
+    private int laneNo(final String routingKey) {
+        return Math.floorMod(Objects.hashCode(routingKey), lanes.size());
+    }
+
+    private MessagePublisher nextLane() {
+        final int laneNo = Math.floorMod(nextLane.getAndIncrement(), lanes.size());
+        return lanes.get(laneNo);
+    }
+
+    private static void tryClose(final MessagePublisher publisher) {
+        try {
+            publisher.close();
+        } catch (final RuntimeException e) {
+            log.error("Error while closing publisher", e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package pl.finder.elmer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Executor of single subscription running at most limit workers at once on delegate executor,
+ * remaining tasks wait in bounded queue. Submitting thread waits only when queue is full.
+ * Each worker runs up to quantum tasks and then yields delegate thread by resubmitting itself, so subscriptions
+ * sharing delegate executor get its threads in proportion to their quanta (weighted round robin).
+ * Limit can be changed while executor is running.
+ */
+@Slf4j
+final class SubscriptionExecutor implements Executor, AutoCloseable {
+    private final BlockingQueue<Runnable> pending;
+    private final Executor delegate;
+    private final ExecutorService ownedDelegate;
+    private final int quantum;
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile int limit;
+    private volatile boolean closed;
+
+    private SubscriptionExecutor(final Executor delegate, final ExecutorService ownedDelegate, final int limit,
+            final int bufferSize, final int quantum) {
+        this.delegate = delegate;
+        this.ownedDelegate = ownedDelegate;
+        this.limit = limit;
+        this.quantum = quantum;
+        this.pending = new LinkedBlockingQueue<>(bufferSize);
+    }
+
+    /**
+     * Creates executor running tasks on delegate shared with other subscriptions.
+     */
+    static SubscriptionExecutor shared(final Executor delegate, final int limit, final int bufferSize,
+            final int quantum) {
+        return new SubscriptionExecutor(delegate, null, limit, bufferSize, quantum);
+    }
+
+    /**
+     * Creates executor running tasks on its own delegate, shut down when executor is closed.
+     */
+    static SubscriptionExecutor owning(final ExecutorService delegate, final int limit, final int bufferSize,
+            final int quantum) {
+        return new SubscriptionExecutor(delegate, delegate, limit, bufferSize, quantum);
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        if (closed) {
+            throw new RejectedExecutionException("Subscription executor has been closed");
+        }
+        try {
+            awaitPut(task);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for free space in dispatch buffer", e);
+        }
+        startPending();
+    }
+
+    /**
+     * Puts task into dispatch buffer, waiting for free space as managed blocker, so fork join pool shared
+     * by subscriptions compensates threads waiting in dispatch of other tasks, e.g. resubmitted lanes.
+     */
+    private void awaitPut(final Runnable task) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            private boolean done;
+
+            @Override
+            public boolean block() throws InterruptedException {
+                pending.put(task);
+                done = true;
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                if (!done) {
+                    done = pending.offer(task);
+                }
+                return done;
+            }
+        });
+    }
+
+    /**
+     * Changes maximum number of concurrently running workers.
+     *
+     * @param newLimit new limit
+     */
+    void resize(final int newLimit) {
+        limit = newLimit;
+        startPending();
+    }
+
+    /**
+     * Returns number of tasks waiting in dispatch buffer.
+     *
+     * @return number of waiting tasks
+     */
+    int queueDepth() {
+        return pending.size();
+    }
+
+    private void startPending() {
+        while (!pending.isEmpty() && tryAcquire()) {
+            try {
+                delegate.execute(this::drain);
+            } catch (final RuntimeException e) {
+                running.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = running.get();
+            if (current >= limit) {
+                return false;
+            }
+        } while (!running.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < quantum; i++) {
+                final Runnable task = pending.poll();
+                if (task == null) {
+                    break;
+                }
+                try {
+                    task.run();
+                } catch (final RuntimeException e) {
+                    log.error("Unhandled error in consumption task", e);
+                }
+            }
+        } finally {
+            running.decrementAndGet();
+            startPending();
+            shutdownOwnedIfIdle();
+        }
+    }
+
+    /**
+     * Stops accepting tasks, tasks already accepted are run. Owned delegate is shut down once they complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        shutdownOwnedIfIdle();
+    }
+
+    private void shutdownOwnedIfIdle() {
+        if (closed && ownedDelegate != null && running.get() == 0 && pending.isEmpty()) {
+            ownedDelegate.shutdown();
+        }
+    }
+}
@@ -3,11 +3,17 @@ package pl.finder.elmer.configuration;
 import java.util.function.Consumer;
 
 import pl.finder.elmer.io.SslConfigurator;
+import pl.finder.elmer.publication.PublisherConfigurator;
 import pl.finder.elmer.serialization.MessageSerializer;
+import pl.finder.elmer.subscription.ConsumptionConfigurator;
 
 public interface BusConfigurator {
 
     BusConfigurator configureSerializer(Consumer<MessageSerializer.Configurator> configure);
 
     BusConfigurator configureSsl(Consumer<SslConfigurator> configure);
+
+    BusConfigurator configurePublisher(Consumer<PublisherConfigurator> configure);
+
+    BusConfigurator configureConsumption(Consumer<ConsumptionConfigurator> configure);
 }
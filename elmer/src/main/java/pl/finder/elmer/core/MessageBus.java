@@ -1,5 +1,6 @@
 package pl.finder.elmer.core;
 
+import pl.finder.elmer.publication.BatchPublishOptions;
 import pl.finder.elmer.publication.MessagePublisher;
 import pl.finder.elmer.subscription.SubscriptionManager;
 import pl.finder.elmer.topology.TopologyManager;
@@ -8,6 +9,14 @@ public interface MessageBus extends MessagePublisher, SubscriptionManager {
 
     MessagePublisher createPublisher();
 
+    /**
+     * Creates publisher packing messages into batch envelopes, unpacked transparently by subscribers.
+     *
+     * @param options batching options
+     * @return batching publisher
+     */
+    MessagePublisher createBatchingPublisher(BatchPublishOptions options);
+
     TopologyManager topology();
 
     @Override
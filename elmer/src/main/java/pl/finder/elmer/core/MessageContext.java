@@ -16,11 +16,26 @@ import com.rabbitmq.client.BasicProperties;
 
 import pl.finder.elmer.commons.Numbers;
 import pl.finder.elmer.publication.DeliveryMode;
+import pl.finder.elmer.serialization.Message;
 
 public interface MessageContext<T> {
+    /**
+     * Header holding number of times message has been retried.
+     */
+    String AttemptHeader = "x-elmer-attempt";
 
     T body();
 
+    /**
+     * Returns serialized message, accessing it does not deserialize body.
+     *
+     * @return serialized message
+     * @throws UnsupportedOperationException when implementation does not keep serialized message
+     */
+    default Message message() {
+        throw new UnsupportedOperationException("Serialized message is not available");
+    }
+
     String consumerTag();
 
     String exchange();
@@ -29,8 +44,54 @@ public interface MessageContext<T> {
 
     BasicProperties properties();
 
+    /**
+     * Acknowledges message. Message is settled once, subsequent acknowledgements and negative acknowledgements
+     * are ignored.
+     */
     void ack();
 
+    /**
+     * Negatively acknowledges message, ignored when message has already been settled.
+     *
+     * @param requeue true - message is returned to queue, false - message is dropped or dead-lettered
+     * @throws IllegalStateException when automatic acknowledging is enabled
+     * @throws UnsupportedOperationException when implementation does not support negative acknowledgements
+     */
+    default void nack(final boolean requeue) {
+        throw new UnsupportedOperationException("Negative acknowledgements are not supported");
+    }
+
+    /**
+     * Republishes message to retry queue of subscription queue, from which it returns to subscription queue
+     * after delay with incremented attempt header, and acknowledges message once broker confirms republished one.
+     * Message is left unsettled when republishing fails. Retry queue is declared on first use.
+     *
+     * @param delay retry delay
+     * @throws IllegalStateException when message has already been settled
+     * @throws UnsupportedOperationException when implementation does not support retries
+     */
+    default void retry(final Duration delay) {
+        throw new UnsupportedOperationException("Retries are not supported");
+    }
+
+    default void requeue() {
+        nack(true);
+    }
+
+    default void reject() {
+        nack(false);
+    }
+
+    /**
+     * Returns number of times message has been retried.
+     *
+     * @return retry attempt, 0 for first delivery
+     */
+    default int attempt() {
+        final Integer attempt = headerAsInt(AttemptHeader);
+        return attempt != null ? attempt : 0;
+    }
+
     default Map<String, Object> headers() {
         final BasicProperties properties = properties();
         final Map<String, Object> headers = properties.getHeaders();
@@ -0,0 +1,13 @@
+package pl.finder.elmer.core;
+
+@SuppressWarnings("serial")
+public final class PublisherOverloadedException extends AMQPException {
+
+    public PublisherOverloadedException(final String message) {
+        super(message);
+    }
+
+    public PublisherOverloadedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
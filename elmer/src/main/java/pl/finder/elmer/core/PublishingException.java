@@ -17,7 +17,15 @@ public final class PublishingException extends AMQPException {
 
     public static PublishingException create(final PublishOptions options, final Throwable cause) {
         return new PublishingException(
-                String.format("Could not publish message to: '%s' reason: '%s'", options.exchange()),
+                String.format("Could not publish message to: '%s' reason: '%s'", options.exchange(),
+                        cause.getMessage()),
+                cause, options);
+    }
+
+    public static PublishingException retryBudgetExceeded(final PublishOptions options, final Throwable cause) {
+        return new PublishingException(
+                String.format("Could not publish message to: '%s', retry budget exceeded, reason: '%s'",
+                        options.exchange(), cause.getMessage()),
                 cause, options);
     }
 }
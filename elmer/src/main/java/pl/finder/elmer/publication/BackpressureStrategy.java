@@ -0,0 +1,24 @@
+package pl.finder.elmer.publication;
+
+/**
+ * Behaviour of publisher when limit of pending publications is reached
+ * or publishing connection has been blocked by broker.
+ */
+public enum BackpressureStrategy {
+
+    /**
+     * Publishing thread is blocked until publication can be accepted.
+     */
+    Block,
+
+    /**
+     * Publication stage is failed immediately with {@link pl.finder.elmer.core.PublisherOverloadedException}.
+     */
+    FailFast,
+
+    /**
+     * Publication stage is returned immediately, message is published once publication can be accepted.
+     * Delayed publications wait in order of arrival.
+     */
+    Delay
+}
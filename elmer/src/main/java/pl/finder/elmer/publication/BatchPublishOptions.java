@@ -0,0 +1,71 @@
+package pl.finder.elmer.publication;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.time.Duration;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Options of batching publisher, packing messages with the same publish options into single message.
+ * Batch is published when it reaches maximum number of messages or size, or after linger time.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode
+@ToString
+@Getter
+@Accessors(fluent = true)
+public final class BatchPublishOptions {
+    private static final BatchPublishOptions Defaults = builder().build();
+
+    /**
+     * Maximum number of messages in batch.
+     */
+    private final int maxMessages;
+    /**
+     * Maximum total size of message bodies in batch.
+     */
+    private final int maxBytes;
+    /**
+     * Time for which batch waits for more messages before it is published.
+     */
+    private final Duration lingerTime;
+
+    public static BatchPublishOptions.Builder builder() {
+        return new Builder();
+    }
+
+    public static BatchPublishOptions defaults() {
+        return Defaults;
+    }
+
+    public BatchPublishOptions.Builder with() {
+        return builder()
+                .maxMessages(maxMessages)
+                .maxBytes(maxBytes)
+                .lingerTime(lingerTime);
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PRIVATE)
+    @Setter
+    public static final class Builder {
+        private int maxMessages = 256;
+        private int maxBytes = 128 * 1024;
+        private Duration lingerTime = Duration.ofMillis(5);
+
+        public BatchPublishOptions build() {
+            checkState(maxMessages > 0, String.format("Invalid maxMessages: %d, expected > 0", maxMessages));
+            checkState(maxBytes > 0, String.format("Invalid maxBytes: %d, expected > 0", maxBytes));
+            checkState(lingerTime != null && !lingerTime.isNegative(),
+                    String.format("Invalid lingerTime: %s, expected >= 0", lingerTime));
+            return new BatchPublishOptions(maxMessages, maxBytes, lingerTime);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package pl.finder.elmer.publication;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Reactive streams interfaces, same as java.util.concurrent.Flow which is not available before Java 9.
+ * Implementations of java.util.concurrent.Flow or org.reactivestreams can be adapted with method references.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class Flow {
+
+    @FunctionalInterface
+    public static interface Publisher<T> {
+
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public static interface Subscriber<T> {
+
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable error);
+
+        void onComplete();
+    }
+
+    public static interface Subscription {
+
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -14,6 +14,7 @@ import java.util.function.Function;
 import com.google.common.collect.ImmutableMap;
 
 public interface MessagePublisher extends AutoCloseable {
+    int DefaultMaxInFlight = 256;
 
     <T> CompletionStage<MessagePublisher> publish(PublishOptions options, T message);
 
@@ -25,7 +26,45 @@ public interface MessagePublisher extends AutoCloseable {
         return publishAll(options, messagesList);
     }
 
-    <T> QueuePublisher publishFrom(MultiPublishOptions<T> options, BlockingQueue<T> messageQueue);
+    <T> QueuePublisher publishFrom(MultiPublishOptions<T> options, BlockingQueue<T> messageQueue,
+            QueuePublishOptions queueOptions);
+
+    default <T> QueuePublisher publishFrom(final MultiPublishOptions<T> options,
+            final BlockingQueue<T> messageQueue) {
+        return publishFrom(options, messageQueue, QueuePublishOptions.defaults());
+    }
+
+    /**
+     * Creates subscriber publishing messages received from upstream publisher,
+     * with at most maxInFlight messages requested and not yet published.
+     *
+     * @param options publish options
+     * @param maxInFlight maximum number of messages requested from upstream and not yet published
+     * @return publishing subscriber
+     */
+    default <T> PublishingSubscriber<T> subscriber(final MultiPublishOptions<T> options, final int maxInFlight) {
+        return PublishingSubscriber.create(this, options, maxInFlight);
+    }
+
+    /**
+     * Publishes all messages of upstream publisher.
+     *
+     * @param options publish options
+     * @param source upstream publisher
+     * @param maxInFlight maximum number of messages requested from upstream and not yet published
+     * @return completion of publishing, see {@link PublishingSubscriber#completion()}
+     */
+    default <T> CompletionStage<MessagePublisher> publishFrom(final MultiPublishOptions<T> options,
+            final Flow.Publisher<T> source, final int maxInFlight) {
+        final PublishingSubscriber<T> subscriber = subscriber(options, maxInFlight);
+        source.subscribe(subscriber);
+        return subscriber.completion();
+    }
+
+    default <T> CompletionStage<MessagePublisher> publishFrom(final MultiPublishOptions<T> options,
+            final Flow.Publisher<T> source) {
+        return publishFrom(options, source, DefaultMaxInFlight);
+    }
 
     @Override
     void close();
@@ -90,6 +90,10 @@ public final class MultiPublishOptions<T> {
         errorHandler.accept(message, new InterruptedException("Publishing interrupted by previous error"));
     }
 
+    public void failed(final T message, final Exception error) {
+        errorHandler.accept(message, error);
+    }
+
     public boolean shouldContinueOnError(final T message, final Exception error) {
         errorHandler.accept(message, error);
         return continueOnError;
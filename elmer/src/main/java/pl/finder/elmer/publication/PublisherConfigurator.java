@@ -0,0 +1,99 @@
+package pl.finder.elmer.publication;
+
+import java.nio.file.Path;
+
+/**
+ * Configurator of message publishers created by the bus.
+ */
+public interface PublisherConfigurator {
+
+    /**
+     * Enables publisher confirms. Publication stage is completed when broker acknowledges the message
+     * and failed when broker rejects it or publishing channel is closed before confirmation.
+     *
+     * @param enabled true - enabled, false - disabled
+     * @return self
+     */
+    PublisherConfigurator withConfirms(boolean enabled);
+
+    /**
+     * Sets number of publishing channels. Each channel is owned by its own publishing thread
+     * and channels are spread across pooled connections.
+     *
+     * @param channels number of channels, 1 by default
+     * @return self
+     */
+    PublisherConfigurator withChannels(int channels);
+
+    /**
+     * Sets strategy of assigning messages to publishing channels.
+     *
+     * @param routing routing strategy, {@link PublisherRouting#RoundRobin} by default
+     * @return self
+     */
+    PublisherConfigurator withRouting(PublisherRouting routing);
+
+    /**
+     * Sets maximum number of messages queued or in flight on all publishing channels of publisher,
+     * including publications of queue publishers.
+     * In confirms mode message is pending until broker confirms it.
+     *
+     * @param maxPendingMessages maximum number of pending messages, 65536 by default
+     * @return self
+     */
+    PublisherConfigurator withMaxPendingMessages(int maxPendingMessages);
+
+    /**
+     * Sets maximum total size of message bodies queued or in flight on all publishing channels of publisher.
+     *
+     * @param maxPendingBytes maximum size of pending messages in bytes, 64MB by default
+     * @return self
+     */
+    PublisherConfigurator withMaxPendingBytes(long maxPendingBytes);
+
+    /**
+     * Sets behaviour of publisher when pending messages limits are reached
+     * or publishing connection has been blocked by broker.
+     *
+     * @param strategy backpressure strategy, {@link BackpressureStrategy#Block} by default
+     * @return self
+     */
+    PublisherConfigurator withBackpressure(BackpressureStrategy strategy);
+
+    /**
+     * Enables disk backed spool of messages which could not be published because broker is unreachable.
+     * Spooled messages are stored in memory mapped segment files in given directory and replayed in order,
+     * over channel in confirms mode, once broker becomes reachable. Messages spooled and not replayed
+     * before shutdown are replayed on next start. Spool directory should not be shared between buses.
+     * By default spool protects messages against broker outages and process crashes, but not host crashes,
+     * see {@link #withSpoolSync(SpoolSyncPolicy)}.
+     *
+     * @param directory spool directory, spool is disabled by default
+     * @return self
+     */
+    PublisherConfigurator withSpool(Path directory);
+
+    /**
+     * Sets size of spool segment files.
+     *
+     * @param segmentSize segment size in bytes, 64MB by default
+     * @return self
+     */
+    PublisherConfigurator withSpoolSegmentSize(int segmentSize);
+
+    /**
+     * Sets moment at which spooled messages are forced to disk.
+     *
+     * @param policy sync policy, {@link SpoolSyncPolicy#SegmentRoll} by default
+     * @return self
+     */
+    PublisherConfigurator withSpoolSync(SpoolSyncPolicy policy);
+
+    default PublisherConfigurator withConfirmsEnabled() {
+        return withConfirms(true);
+    }
+
+    default PublisherConfigurator withConfirmsDisabled() {
+        return withConfirms(false);
+    }
+}
@@ -0,0 +1,17 @@
+package pl.finder.elmer.publication;
+
+/**
+ * Strategy of assigning messages to publishing channels of multi channel publisher.
+ */
+public enum PublisherRouting {
+
+    /**
+     * Messages are assigned to channels in turn.
+     */
+    RoundRobin,
+
+    /**
+     * Messages are assigned to channel by routing key hash, preserving order of messages with the same routing key.
+     */
+    RoutingKeyHash
+}
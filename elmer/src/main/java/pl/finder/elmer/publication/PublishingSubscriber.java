@@ -0,0 +1,134 @@
+package pl.finder.elmer.publication;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Subscriber publishing received messages with demand driven backpressure.
+ * At most maxInFlight messages are requested from upstream before their publications complete,
+ * publication completes once message has been confirmed (when confirms are enabled) or accepted by
+ * publisher flow control, so stream of any length is published with bounded memory.
+ * Demand is replenished in chunks of half of maxInFlight.
+ */
+public final class PublishingSubscriber<T> implements Flow.Subscriber<T> {
+    private final CompletableFuture<MessagePublisher> completion = new CompletableFuture<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger completed = new AtomicInteger();
+    private final MessagePublisher publisher;
+    private final MultiPublishOptions<T> options;
+    private final int maxInFlight;
+    private final int requestChunk;
+    private volatile Flow.Subscription subscription;
+    private volatile boolean upstreamDone;
+
+    private PublishingSubscriber(final MessagePublisher publisher, final MultiPublishOptions<T> options,
+            final int maxInFlight) {
+        this.publisher = publisher;
+        this.options = options;
+        this.maxInFlight = maxInFlight;
+        this.requestChunk = Math.max(1, maxInFlight / 2);
+    }
+
+    public static <T> PublishingSubscriber<T> create(final MessagePublisher publisher,
+            final MultiPublishOptions<T> options, final int maxInFlight) {
+        checkNotNull(publisher, "Publisher not specified");
+        checkNotNull(options, "Publish options not specified");
+        checkArgument(maxInFlight > 0, String.format("Invalid maxInFlight: %d, expected > 0", maxInFlight));
+        return new PublishingSubscriber<>(publisher, options, maxInFlight);
+    }
+
+    /**
+     * Completion of publishing, completed when upstream has completed and all received messages
+     * has been published, or exceptionally on upstream error or publishing error which should not be ignored.
+     *
+     * @return publishing completion stage
+     */
+    public CompletionStage<MessagePublisher> completion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription subscription) {
+        checkNotNull(subscription, "Subscription cannot be null");
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(maxInFlight);
+    }
+
+    @Override
+    public void onNext(final T message) {
+        checkNotNull(message, "Message cannot be null");
+        if (completion.isDone()) {
+            options.interrupted(message);
+            return;
+        }
+        inFlight.incrementAndGet();
+        CompletionStage<MessagePublisher> publication;
+        try {
+            publication = publisher.publish(options.optionsOf(message), message);
+        } catch (final RuntimeException e) {
+            final CompletableFuture<MessagePublisher> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            publication = failed;
+        }
+        publication.whenComplete((result, error) -> {
+            if (error != null && !options.shouldContinueOnError(message, unwrap(error))) {
+                fail(unwrap(error));
+            }
+            inFlight.decrementAndGet();
+            if (upstreamDone) {
+                tryComplete();
+            } else {
+                replenish();
+            }
+        });
+    }
+
+    @Override
+    public void onError(final Throwable error) {
+        upstreamDone = true;
+        completion.completeExceptionally(error);
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        tryComplete();
+    }
+
+    private void replenish() {
+        if (completed.incrementAndGet() < requestChunk || completion.isDone()) {
+            return;
+        }
+        final int demand = completed.getAndSet(0);
+        if (demand > 0) {
+            subscription.request(demand);
+        }
+    }
+
+    private void tryComplete() {
+        if (inFlight.get() == 0) {
+            completion.complete(publisher);
+        }
+    }
+
+    private void fail(final Exception error) {
+        if (completion.completeExceptionally(error)) {
+            subscription.cancel();
+        }
+    }
+
+    private static Exception unwrap(final Throwable error) {
+        final Throwable cause = error instanceof CompletionException && error.getCause() != null ?
+                error.getCause() : error;
+        return cause instanceof Exception ? (Exception) cause : new IllegalStateException(cause);
+    }
+}
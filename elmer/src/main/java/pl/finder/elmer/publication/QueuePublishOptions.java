@@ -0,0 +1,96 @@
+package pl.finder.elmer.publication;
+
+import static com.google.common.base.Preconditions.checkState;
+import static pl.finder.elmer.commons.Durations.isGreaterOrEqual;
+import static pl.finder.elmer.commons.Durations.isGreaterThan;
+
+import java.time.Duration;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Options of publishing messages from queue.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode
+@ToString
+@Getter
+@Accessors(fluent = true)
+public final class QueuePublishOptions {
+    private static final QueuePublishOptions Defaults = builder().build();
+
+    /**
+     * Maximum number of messages drained from queue and published at once.
+     */
+    private final int maxBatchSize;
+    /**
+     * Time for which worker waits for batch to fill up before publishing it.
+     */
+    private final Duration lingerTime;
+    /**
+     * Number of workers publishing from queue, each using its own channel.
+     */
+    private final int workers;
+    /**
+     * Delay of first retry of failed publication, each next retry doubles it.
+     */
+    private final Duration retryBackoff;
+    /**
+     * Maximum delay between retries of failed publication.
+     */
+    private final Duration maxRetryBackoff;
+    /**
+     * Maximum number of messages awaiting retry per worker, failures above it are passed to error handler.
+     */
+    private final int retryBudget;
+
+    public static QueuePublishOptions.Builder builder() {
+        return new Builder();
+    }
+
+    public static QueuePublishOptions defaults() {
+        return Defaults;
+    }
+
+    public QueuePublishOptions.Builder with() {
+        return builder()
+                .maxBatchSize(maxBatchSize)
+                .lingerTime(lingerTime)
+                .workers(workers)
+                .retryBackoff(retryBackoff)
+                .maxRetryBackoff(maxRetryBackoff)
+                .retryBudget(retryBudget);
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PRIVATE)
+    @Setter
+    public static final class Builder {
+        private int maxBatchSize = 128;
+        private Duration lingerTime = Duration.ZERO;
+        private int workers = 1;
+        private Duration retryBackoff = Duration.ofSeconds(1);
+        private Duration maxRetryBackoff = Duration.ofSeconds(30);
+        private int retryBudget = 1024;
+
+        public QueuePublishOptions build() {
+            checkState(maxBatchSize > 0, String.format("Invalid maxBatchSize: %d, expected > 0", maxBatchSize));
+            checkState(lingerTime == null || !lingerTime.isNegative(),
+                    String.format("Invalid lingerTime: %s, expected >= 0", lingerTime));
+            checkState(workers > 0, String.format("Invalid workers: %d, expected > 0", workers));
+            checkState(retryBackoff != null && isGreaterThan(retryBackoff, Duration.ZERO),
+                    String.format("Invalid retryBackoff: %s, expected > 0", retryBackoff));
+            checkState(maxRetryBackoff != null && isGreaterOrEqual(maxRetryBackoff, retryBackoff),
+                    String.format("Invalid maxRetryBackoff: %s, expected >= %s", maxRetryBackoff, retryBackoff));
+            checkState(retryBudget >= 0, String.format("Invalid retryBudget: %d, expected >= 0", retryBudget));
+            return new QueuePublishOptions(maxBatchSize, lingerTime != null ? lingerTime : Duration.ZERO, workers,
+                    retryBackoff, maxRetryBackoff, retryBudget);
+        }
+    }
+}
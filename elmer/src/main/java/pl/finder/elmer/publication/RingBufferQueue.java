@@ -0,0 +1,319 @@
+package pl.finder.elmer.publication;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Bounded lock free multi producer multi consumer queue backed by ring buffer.
+ * Can be used as input of {@link MessagePublisher#publishFrom} in place of lock based blocking queues.
+ * Blocking operations spin, then yield and finally park until operation which adds element or frees space
+ * unparks them, so idle waiting threads do not wake up periodically.
+ * Removal of elements other than head, e.g. {@link #remove(Object)} or iterator removal, is not supported.
+ *
+ * @param <T> type of elements
+ */
+public final class RingBufferQueue<T> extends AbstractQueue<T> implements BlockingQueue<T> {
+    private static final int SpinTries = 100;
+    private static final int YieldTries = 100;
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<T> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Waiters consumers = new Waiters(() -> !isEmpty());
+    private final Waiters producers = new Waiters(() -> remainingCapacity() > 0);
+
+    private RingBufferQueue(final int capacity) {
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.elements = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Creates queue with capacity rounded up to power of two, at least 2 as sequence of slot in single slot ring
+     * does not tell full slot from empty one.
+     *
+     * @param capacity minimal capacity
+     * @return created queue
+     */
+    public static <T> RingBufferQueue<T> create(final int capacity) {
+        checkArgument(capacity > 0 && capacity <= 1 << 30,
+                String.format("Invalid capacity: %d, expected <1 - 2^30>", capacity));
+        return new RingBufferQueue<>(capacity <= 2 ? 2 : Integer.highestOneBit((capacity - 1) << 1));
+    }
+
+    @Override
+    public boolean offer(final T element) {
+        checkNotNull(element, "Cannot enqueue null element");
+        while (true) {
+            final long position = tail.get();
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    // volatile write, so check of waiters below is not reordered before publication of element
+                    sequences.set(index, position + 1);
+                    consumers.signal();
+                    return true;
+                }
+            } else if (difference < 0) {
+                return false;
+            }
+        }
+    }
+
+    @Override
+    public T poll() {
+        while (true) {
+            final long position = head.get();
+            final int index = (int) position & mask;
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final T element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.set(index, position + capacity);
+                    producers.signal();
+                    return element;
+                }
+            } else if (difference < 0) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public T peek() {
+        final long position = head.get();
+        final int index = (int) position & mask;
+        return sequences.get(index) == position + 1 ? elements.get(index) : null;
+    }
+
+    @Override
+    public void put(final T element) throws InterruptedException {
+        if (!offer(element)) {
+            await(() -> offer(element) ? Boolean.TRUE : null, producers, false, 0L);
+        }
+    }
+
+    @Override
+    public boolean offer(final T element, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (offer(element)) {
+            return true;
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return await(() -> offer(element) ? Boolean.TRUE : null, producers, true, deadline) != null;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        final T element = poll();
+        return element != null ? element : await(this::poll, consumers, false, 0L);
+    }
+
+    @Override
+    public T poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final T element = poll();
+        if (element != null) {
+            return element;
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return await(this::poll, consumers, true, deadline);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(final Collection<? super T> collection, final int maxElements) {
+        checkNotNull(collection, "Collection not specified");
+        checkArgument(collection != this, "Cannot drain queue to itself");
+        int drained = 0;
+        T element;
+        while (drained < maxElements && (element = poll()) != null) {
+            collection.add(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        final long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * Not supported, elements can be removed only from head of queue.
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public boolean remove(final Object element) {
+        throw new UnsupportedOperationException("Removal of arbitrary elements is not supported");
+    }
+
+    /**
+     * Returns iterator over snapshot of queue elements. Removal is not supported.
+     */
+    @Override
+    public Iterator<T> iterator() {
+        final List<T> snapshot = new ArrayList<>();
+        final long last = tail.get();
+        for (long position = head.get(); position < last; position++) {
+            final int index = (int) position & mask;
+            final T element = elements.get(index);
+            if (element != null && sequences.get(index) == position + 1) {
+                snapshot.add(element);
+            }
+        }
+        final Iterator<T> iterator = snapshot.iterator();
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+        };
+    }
+
+    /**
+     * Repeats attempt until it succeeds, spinning and yielding first, then parking registered among waiters
+     * until unparked by signal.
+     *
+     * @param attempt attempt returning null on failure
+     * @param waiters waiters signalled when attempt may succeed
+     * @param timed true when waiting is limited by deadline
+     * @param deadline deadline in nanos of {@link System#nanoTime()}
+     * @return result of successful attempt, null when deadline has passed
+     */
+    private <R> R await(final Supplier<R> attempt, final Waiters waiters, final boolean timed, final long deadline)
+            throws InterruptedException {
+        final Thread current = Thread.currentThread();
+        boolean signalled = false;
+        try {
+            int idleCount = 0;
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final long remaining = deadline - System.nanoTime();
+                if (timed && remaining <= 0) {
+                    return null;
+                }
+                if (idleCount < SpinTries + YieldTries) {
+                    if (idleCount++ >= SpinTries) {
+                        Thread.yield();
+                    }
+                } else {
+                    // registered before retrying, so signal of concurrent operation is not missed
+                    waiters.add(current);
+                    final R result = attempt.get();
+                    if (result == null) {
+                        park(timed, remaining);
+                    }
+                    signalled |= !waiters.remove(current);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                final R result = attempt.get();
+                if (result != null) {
+                    return result;
+                }
+            }
+        } finally {
+            // signal consumed by thread which did not use it is passed on
+            if (signalled) {
+                waiters.signalIfReady();
+            }
+        }
+    }
+
+    private void park(final boolean timed, final long remaining) {
+        if (timed) {
+            LockSupport.parkNanos(this, remaining);
+        } else {
+            LockSupport.park(this);
+        }
+    }
+
+    /**
+     * Threads parked until elements or free space become available.
+     */
+    private static final class Waiters {
+        private final Queue<Thread> threads = new ConcurrentLinkedQueue<>();
+        private final BooleanSupplier ready;
+
+        private Waiters(final BooleanSupplier ready) {
+            this.ready = ready;
+        }
+
+        private void add(final Thread thread) {
+            threads.add(thread);
+        }
+
+        /**
+         * Removes waiting thread.
+         *
+         * @return false when thread has already been removed by signal
+         */
+        private boolean remove(final Thread thread) {
+            return threads.remove(thread);
+        }
+
+        private void signal() {
+            if (!threads.isEmpty()) {
+                final Thread thread = threads.poll();
+                if (thread != null) {
+                    LockSupport.unpark(thread);
+                }
+            }
+        }
+
+        private void signalIfReady() {
+            if (ready.getAsBoolean()) {
+                signal();
+            }
+        }
+    }
+}
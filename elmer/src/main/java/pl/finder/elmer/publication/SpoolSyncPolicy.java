@@ -0,0 +1,21 @@
+package pl.finder.elmer.publication;
+
+/**
+ * Moment at which spooled messages are forced from memory mapped segment to disk.
+ * Messages not forced yet survive crash of the process, as they are held by operating system,
+ * but are lost when the host crashes.
+ */
+public enum SpoolSyncPolicy {
+
+    /**
+     * Segment is forced when it is full and next segment is created, and when spool is closed.
+     * Messages of the last segment are lost when the host crashes.
+     */
+    SegmentRoll,
+
+    /**
+     * Segment is forced after each appended message, before publication stage is completed.
+     * Spooled messages survive host crash, at cost of disk write per message.
+     */
+    EveryRecord
+}
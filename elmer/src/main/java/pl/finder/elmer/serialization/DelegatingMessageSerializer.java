@@ -22,11 +22,13 @@ public final class DelegatingMessageSerializer implements MessageSerializer {
     private final Map<String, MessageSerializer> typeSerializers;
     private final Map<String, MessageSerializer> contentTypeSerializers;
     private final MessageSerializer defaultSerializer;
+    private final int compressionThreshold;
 
     private DelegatingMessageSerializer(final DefaultConfigurator configurator) {
         typeSerializers = ImmutableMap.copyOf(configurator.typeSerializers);
         contentTypeSerializers = ImmutableMap.copyOf(configurator.contentTypeSerializers);
         defaultSerializer = configurator.defaultSerializer;
+        compressionThreshold = configurator.compressionThreshold;
     }
 
     public static MessageSerializer create(final Consumer<Configurator> options) {
@@ -38,8 +40,18 @@ public final class DelegatingMessageSerializer implements MessageSerializer {
     @Override
     public Message serialize(final Object message) {
         checkNotNull(message, "Cannot serialize null message");
-        final MessageSerializer serializer = typeSerializers.getOrDefault(message.getClass(), defaultSerializer);
-        return serializer.serialize(message);
+        final Message serialized;
+        if (message instanceof Message) {
+            // already serialized, e.g. batch envelope
+            serialized = (Message) message;
+        } else {
+            final MessageSerializer serializer = typeSerializers.getOrDefault(message.getClass(), defaultSerializer);
+            serialized = serializer.serialize(message);
+        }
+        if (compressionThreshold >= 0 && serialized.bodyLength() >= compressionThreshold) {
+            return MessageCompression.compress(serialized);
+        }
+        return serialized;
     }
 
     @Override
@@ -82,6 +94,7 @@ public final class DelegatingMessageSerializer implements MessageSerializer {
         private final Map<String, MessageSerializer> contentTypeSerializers = DefaultSerializers.entrySet()
                 .stream().collect(toMap(entry -> entry.getKey().value(), Entry::getValue));
         private MessageSerializer defaultSerializer = DefaultSerializers.get(JSON);
+        private int compressionThreshold = -1;
 
         @Override
         public Configurator clearDefaults() {
@@ -124,6 +137,13 @@ public final class DelegatingMessageSerializer implements MessageSerializer {
             return this;
         }
 
+        @Override
+        public Configurator enableCompression(final int threshold) {
+            checkArgument(threshold >= 0, String.format("Invalid compression threshold: %d, expected >= 0", threshold));
+            compressionThreshold = threshold;
+            return this;
+        }
+
         private static Map<String, MessageSerializer> createDefaultTypSerializers() {
             final Map<String, MessageSerializer> typeSerializers = new HashMap<>();
             final NumberSerializer numberSerializer = NumberSerializer.create();
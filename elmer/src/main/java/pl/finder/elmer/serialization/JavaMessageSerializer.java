@@ -3,7 +3,6 @@ package pl.finder.elmer.serialization;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -21,12 +20,11 @@ final class JavaMessageSerializer implements MessageSerializer {
         checkNotNull(message, "Message not specified");
         checkArgument(message instanceof Serializable, String.format("Message: %s does not implements %s interface",
                 message.getClass().getCanonicalName(), Serializable.class.getCanonicalName()));
-        try (final ByteArrayOutputStream output = new ByteArrayOutputStream();
-                final ObjectOutputStream objectStream = new ObjectOutputStream(output)) {
+        try (final SerializationBuffers.Buffer output = SerializationBuffers.acquire(message.getClass())) {
+            final ObjectOutputStream objectStream = new ObjectOutputStream(output);
             objectStream.writeObject(message);
             objectStream.flush();
-            return Message.builder()
-                    .body(output.toByteArray())
+            return output.messageBuilder()
                     .contentType(MessageContentType.JAVA.value())
                     .build();
         } catch (final IOException e) {
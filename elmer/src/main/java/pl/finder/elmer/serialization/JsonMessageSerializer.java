@@ -3,11 +3,9 @@ package pl.finder.elmer.serialization;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
 
@@ -27,11 +25,11 @@ final class JsonMessageSerializer implements MessageSerializer {
 
     @Override
     public Message serialize(final Object message) {
-        try (final ByteArrayOutputStream output = new ByteArrayOutputStream();
-                final Writer writer = new OutputStreamWriter(output)) {
+        try (final SerializationBuffers.Buffer output = SerializationBuffers.acquire(message.getClass())) {
+            final Writer writer = output.writer();
             gson.toJson(message, writer);
-            return Message.builder()
-                    .body(output.toByteArray())
+            writer.flush();
+            return output.messageBuilder()
                     .type(message.getClass().getCanonicalName())
                     .contentType(MessageContentType.JSON.value())
                     .build();
@@ -1,33 +1,180 @@
 package pl.finder.elmer.serialization;
 
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
 
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.EqualsAndHashCode;
 import lombok.Getter;
-import lombok.ToString;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.experimental.Accessors;
 
+/**
+ * Serialized message. Body may be a slice of larger array, in which case it is not copied
+ * until exact body array is requested.
+ */
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
-@EqualsAndHashCode
-@ToString
-@Getter
 @Accessors(fluent = true)
-@Builder
 public final class Message {
+    private static final byte[] EmptyBody = new byte[0];
+
     private final byte[] body;
+    @Getter
+    private final int bodyOffset;
+    @Getter
+    private final int bodyLength;
+    @Getter
     private final String type;
+    @Getter
     private final String encoding;
+    @Getter
     private final String contentType;
 
+    public static Message.Builder builder() {
+        return new Builder();
+    }
+
     static Message raw(final byte[] body) {
-        return new Message(body, null, null, null);
+        return builder()
+                .body(body)
+                .build();
+    }
+
+    /**
+     * Returns message body as exact array, copying it when message holds a slice of larger array.
+     *
+     * @return message body
+     */
+    public byte[] body() {
+        if (bodyOffset == 0 && bodyLength == body.length) {
+            return body;
+        }
+        return Arrays.copyOfRange(body, bodyOffset, bodyOffset + bodyLength);
+    }
+
+    /**
+     * Returns array backing message body, body starts at {@link #bodyOffset()}
+     * and has {@link #bodyLength()} bytes.
+     *
+     * @return backing array
+     */
+    public byte[] bodyArray() {
+        return body;
+    }
+
+    /**
+     * Returns read only view of message body without copying it.
+     *
+     * @return body buffer
+     */
+    public ByteBuffer bodyBuffer() {
+        return ByteBuffer.wrap(body, bodyOffset, bodyLength)
+                .slice()
+                .asReadOnlyBuffer();
     }
 
     public InputStream openStream() {
-        return new ByteArrayInputStream(body);
+        return new ByteArrayInputStream(body, bodyOffset, bodyLength);
+    }
+
+    /**
+     * Compares body slices, not arrays backing them, and message attributes.
+     */
+    @Override
+    public boolean equals(final Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Message)) {
+            return false;
+        }
+        final Message message = (Message) other;
+        if (bodyLength != message.bodyLength) {
+            return false;
+        }
+        for (int i = 0; i < bodyLength; i++) {
+            if (body[bodyOffset + i] != message.body[message.bodyOffset + i]) {
+                return false;
+            }
+        }
+        return Objects.equals(type, message.type)
+                && Objects.equals(encoding, message.encoding)
+                && Objects.equals(contentType, message.contentType);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (int i = bodyOffset; i < bodyOffset + bodyLength; i++) {
+            hash = 31 * hash + body[i];
+        }
+        return 31 * hash + Objects.hash(type, encoding, contentType);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("body", Arrays.toString(body()))
+                .add("type", type)
+                .add("encoding", encoding)
+                .add("contentType", contentType)
+                .toString();
+    }
+
+    public Message.Builder with() {
+        return builder()
+                .body(body, bodyOffset, bodyLength)
+                .type(type)
+                .encoding(encoding)
+                .contentType(contentType);
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PRIVATE)
+    @Setter
+    public static final class Builder {
+        @Setter(AccessLevel.NONE)
+        private byte[] body = EmptyBody;
+        @Setter(AccessLevel.NONE)
+        private int bodyOffset;
+        @Setter(AccessLevel.NONE)
+        private int bodyLength;
+        private String type;
+        private String encoding;
+        private String contentType;
+
+        public Builder body(final byte[] body) {
+            return body(body, 0, body != null ? body.length : 0);
+        }
+
+        public Builder body(final byte[] body, final int offset, final int length) {
+            if (body == null) {
+                return body(EmptyBody);
+            }
+            checkPositionIndexes(offset, offset + length, body.length);
+            this.body = body;
+            this.bodyOffset = offset;
+            this.bodyLength = length;
+            return this;
+        }
+
+        public Builder body(final ByteBuffer body) {
+            if (body.hasArray()) {
+                return body(body.array(), body.arrayOffset() + body.position(), body.remaining());
+            }
+            final byte[] copy = new byte[body.remaining()];
+            body.duplicate().get(copy);
+            return body(copy);
+        }
+
+        public Message build() {
+            return new Message(body, bodyOffset, bodyLength, type, encoding, contentType);
+        }
     }
 }
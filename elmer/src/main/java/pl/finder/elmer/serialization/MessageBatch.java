@@ -0,0 +1,133 @@
+package pl.finder.elmer.serialization;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Envelope packing many serialized messages into single message.
+ * Envelope body starts with number of messages followed by messages, each written as its type, encoding
+ * and content type (length prefixed UTF-8, -1 length for null) and length prefixed body.
+ * Unpacked messages are slices of envelope body, bodies are not copied.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MessageBatch {
+    public static final String ContentType = "application/x-elmer-batch";
+
+    private static final int IntSize = Integer.BYTES;
+    private static final int MinPackedSize = 4 * IntSize;
+
+    /**
+     * Checks if message is batch envelope.
+     *
+     * @param message checked message
+     * @return true/false
+     */
+    public static boolean isBatch(final Message message) {
+        return ContentType.equals(message.contentType());
+    }
+
+    /**
+     * Packs messages into envelope.
+     *
+     * @param messages packed messages
+     * @return envelope message
+     */
+    public static Message pack(final Collection<Message> messages) {
+        int size = IntSize;
+        for (final Message message : messages) {
+            size += sizeOf(message.type()) + sizeOf(message.encoding()) + sizeOf(message.contentType())
+                    + IntSize + message.bodyLength();
+        }
+        final ByteBuffer envelope = ByteBuffer.allocate(size);
+        envelope.putInt(messages.size());
+        for (final Message message : messages) {
+            putString(envelope, message.type());
+            putString(envelope, message.encoding());
+            putString(envelope, message.contentType());
+            envelope.putInt(message.bodyLength());
+            envelope.put(message.bodyArray(), message.bodyOffset(), message.bodyLength());
+        }
+        return Message.builder()
+                .body(envelope.array())
+                .contentType(ContentType)
+                .build();
+    }
+
+    /**
+     * Unpacks messages from envelope.
+     *
+     * @param envelope envelope message
+     * @return unpacked messages
+     * @throws IllegalArgumentException when envelope is malformed
+     */
+    public static List<Message> unpack(final Message envelope) {
+        checkArgument(isBatch(envelope), String.format("Invalid content type: '%s', expected: '%s'",
+                envelope.contentType(), ContentType));
+        final byte[] array = envelope.bodyArray();
+        final ByteBuffer body = ByteBuffer.wrap(array, envelope.bodyOffset(), envelope.bodyLength());
+        checkArgument(body.remaining() >= IntSize, String.format("Invalid batch length: %d, expected >= %d",
+                body.remaining(), IntSize));
+        final int count = body.getInt();
+        // each packed message takes at least its four length prefixes
+        checkArgument(count >= 0 && count <= body.remaining() / MinPackedSize, String.format(
+                "Invalid batch size: %d, expected >= 0 and <= %d", count, body.remaining() / MinPackedSize));
+        final List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String type = getString(body);
+            final String encoding = getString(body);
+            final String contentType = getString(body);
+            final int length = getLength(body);
+            checkArgument(length >= 0, String.format("Invalid message length: %d, expected >= 0", length));
+            messages.add(Message.builder()
+                    .body(array, body.position(), length)
+                    .type(type)
+                    .encoding(encoding)
+                    .contentType(contentType)
+                    .build());
+            body.position(body.position() + length);
+        }
+        return messages;
+    }
+
+    private static int sizeOf(final String value) {
+        return IntSize + (value != null ? value.getBytes(StandardCharsets.UTF_8).length : 0);
+    }
+
+    private static void putString(final ByteBuffer buffer, final String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final int length = getLength(buffer);
+        if (length == -1) {
+            return null;
+        }
+        checkArgument(length >= 0, String.format("Invalid string length: %d, expected >= -1", length));
+        final String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private static int getLength(final ByteBuffer buffer) {
+        checkArgument(buffer.remaining() >= IntSize, String.format("Invalid batch, missing length at: %d",
+                buffer.position()));
+        final int length = buffer.getInt();
+        checkArgument(length <= buffer.remaining(), String.format("Invalid length: %d, expected <= %d",
+                length, buffer.remaining()));
+        return length;
+    }
+}
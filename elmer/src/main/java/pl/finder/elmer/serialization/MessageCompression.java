@@ -0,0 +1,132 @@
+package pl.finder.elmer.serialization;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Deflate compression of message bodies.
+ * Compressed message has "deflate" appended to its encoding, e.g. "UTF-8,deflate",
+ * so encoding of uncompressed body is restored on decompression.
+ * Deflaters and inflaters are reused per thread.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MessageCompression {
+    public static final String Deflate = "deflate";
+    /**
+     * Default maximum size of decompressed body, protecting consumers from highly compressible bodies.
+     */
+    public static final int DefaultMaxDecompressedSize = 64 * 1024 * 1024;
+
+    private static final String EncodingSeparator = ",";
+    private static final int MinBufferSize = 64;
+
+    private static final ThreadLocal<Deflater> Deflaters = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> Inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * Checks if message body is compressed.
+     *
+     * @param encoding message encoding
+     * @return true/false
+     */
+    public static boolean isCompressed(final String encoding) {
+        return encoding != null && (encoding.equals(Deflate) || encoding.endsWith(EncodingSeparator + Deflate));
+    }
+
+    /**
+     * Compresses message body. Message is returned unchanged if compression does not reduce its size.
+     *
+     * @param message message to compress
+     * @return compressed message
+     */
+    static Message compress(final Message message) {
+        if (isCompressed(message.encoding())) {
+            return message;
+        }
+        final Deflater deflater = Deflaters.get();
+        deflater.reset();
+        deflater.setInput(message.bodyArray(), message.bodyOffset(), message.bodyLength());
+        deflater.finish();
+        byte[] output = new byte[Math.max(message.bodyLength() / 2, MinBufferSize)];
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == output.length) {
+                if (length >= message.bodyLength()) {
+                    // not compressible
+                    return message;
+                }
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            length += deflater.deflate(output, length, output.length - length);
+        }
+        if (length >= message.bodyLength()) {
+            return message;
+        }
+        return message.with()
+                .body(output, 0, length)
+                .encoding(message.encoding() != null ? message.encoding() + EncodingSeparator + Deflate : Deflate)
+                .build();
+    }
+
+    /**
+     * Decompresses message body, limited to default maximum decompressed size.
+     * Message is returned unchanged if it is not compressed.
+     *
+     * @param message message to decompress
+     * @return decompressed message
+     */
+    public static Message decompress(final Message message) {
+        return decompress(message, DefaultMaxDecompressedSize);
+    }
+
+    /**
+     * Decompresses message body. Message is returned unchanged if it is not compressed.
+     *
+     * @param message message to decompress
+     * @param maxSize maximum size of decompressed body in bytes
+     * @return decompressed message
+     * @throws IllegalStateException when decompressed body exceeds maxSize
+     */
+    public static Message decompress(final Message message, final int maxSize) {
+        if (!isCompressed(message.encoding())) {
+            return message;
+        }
+        final Inflater inflater = Inflaters.get();
+        inflater.reset();
+        inflater.setInput(message.bodyArray(), message.bodyOffset(), message.bodyLength());
+        // buffer holds one byte over the limit, so body of exactly maxSize bytes is told apart from larger one
+        final long capacity = (long) maxSize + 1;
+        byte[] output = new byte[(int) Math.min(Math.max(message.bodyLength() * 4L, MinBufferSize), capacity)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, (int) Math.min(output.length * 2L, capacity));
+                }
+                final int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Could not decompress message: truncated body");
+                }
+                length += inflated;
+                if (length > maxSize) {
+                    throw new IllegalStateException(String.format(
+                            "Could not decompress message: body exceeds maximum size: %d", maxSize));
+                }
+            }
+        } catch (final DataFormatException e) {
+            throw new IllegalStateException("Could not decompress message", e);
+        }
+        final String encoding = message.encoding();
+        return message.with()
+                .body(output, 0, length)
+                .encoding(encoding.equals(Deflate) ? null :
+                        encoding.substring(0, encoding.length() - Deflate.length() - EncodingSeparator.length()))
+                .build();
+    }
+}
@@ -21,5 +21,14 @@ public interface MessageSerializer {
         Configurator register(String contentType, MessageSerializer serializer);
 
         Configurator register(Class<?> messageType, MessageSerializer serializer);
+
+        /**
+         * Enables deflate compression of serialized messages.
+         * Compressed messages are decompressed by consumers regardless of this setting.
+         *
+         * @param threshold minimal size of message body in bytes, smaller messages are not compressed
+         * @return self
+         */
+        Configurator enableCompression(int threshold);
     }
 }
@@ -59,7 +59,8 @@ final class NumberSerializer implements MessageSerializer {
     private static <T> T doDeserialize(final Message message, final Class<?> messageType) {
         final Function<String, Number> handler = Parsers.get(messageType);
         checkArgument(handler != null, String.format("Unsupported message type: %s", messageType.getCanonicalName()));
-        final String value = new String(message.body(), message.encoding() != null ?
+        final String value = new String(message.bodyArray(), message.bodyOffset(), message.bodyLength(),
+                message.encoding() != null ?
                 Charset.forName(message.encoding()) : Charsets.UTF_8);
         @SuppressWarnings("unchecked")
         final T result = (T) handler.apply(value);
@@ -0,0 +1,122 @@
+package pl.finder.elmer.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Thread local pool of growable output buffers used by serializers.
+ * Buffer is reused by consecutive serializations on the same thread, so it grows only until it fits
+ * the largest message, and initial capacity of new buffers is taken from sizes observed per message type.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class SerializationBuffers {
+    private static final int MinCapacity = 256;
+    private static final int MaxRetainedCapacity = 1024 * 1024;
+    private static final byte[] EmptyArray = new byte[0];
+
+    private static final Map<Class<?>, Integer> SizeHints = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Buffer> Buffers = ThreadLocal.withInitial(() -> new Buffer(MinCapacity));
+
+    /**
+     * Acquires buffer for serialization of given message type. Buffer should be closed after use.
+     *
+     * @param messageType type of serialized message
+     * @return empty buffer
+     */
+    static Buffer acquire(final Class<?> messageType) {
+        final int sizeHint = SizeHints.getOrDefault(messageType, MinCapacity);
+        final Buffer buffer = Buffers.get();
+        if (buffer.inUse) {
+            // nested serialization on the same thread, e.g. delegating serializer
+            return new Buffer(sizeHint).acquire(messageType);
+        }
+        buffer.ensureCapacity(sizeHint);
+        return buffer.acquire(messageType);
+    }
+
+    private static void learn(final Class<?> messageType, final int size) {
+        if (messageType != null) {
+            SizeHints.merge(messageType, Math.max(size, MinCapacity), SerializationBuffers::decayingMax);
+        }
+    }
+
+    private static int decayingMax(final int hint, final int size) {
+        return Math.min(Math.max(size, hint - (hint >> 3)), MaxRetainedCapacity);
+    }
+
+    static final class Buffer extends ByteArrayOutputStream {
+        private boolean inUse;
+        private Class<?> messageType;
+        private Writer writer;
+
+        private Buffer(final int capacity) {
+            super(capacity);
+        }
+
+        private Buffer acquire(final Class<?> messageType) {
+            this.messageType = messageType;
+            inUse = true;
+            reset();
+            return this;
+        }
+
+        /**
+         * Returns character writer of buffer, reused with the buffer. Writer should be flushed after use.
+         *
+         * @return buffer writer
+         */
+        Writer writer() {
+            if (writer == null) {
+                writer = new OutputStreamWriter(this);
+            }
+            return writer;
+        }
+
+        /**
+         * Creates builder of message with buffered body. Mostly filled backing array is handed over to message
+         * without copying, buffer then gets new array on next use, otherwise body is copied.
+         *
+         * @return message builder
+         */
+        Message.Builder messageBuilder() {
+            if (count < buf.length - (buf.length >> 2)) {
+                return Message.builder()
+                        .body(toByteArray());
+            }
+            final Message.Builder builder = Message.builder()
+                    .body(buf, 0, count);
+            // size is learned here, as handed over buffer is empty on close
+            learn(messageType, count);
+            messageType = null;
+            buf = EmptyArray;
+            count = 0;
+            return builder;
+        }
+
+        private void ensureCapacity(final int capacity) {
+            if (buf.length < capacity) {
+                buf = new byte[capacity];
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!inUse) {
+                return;
+            }
+            learn(messageType, count);
+            if (buf.length > MaxRetainedCapacity) {
+                buf = new byte[MinCapacity];
+            }
+            reset();
+            messageType = null;
+            inUse = false;
+        }
+    }
+}
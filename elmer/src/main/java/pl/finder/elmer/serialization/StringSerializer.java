@@ -47,7 +47,8 @@ final class StringSerializer implements MessageSerializer {
                 String.format("Unsupported message type: %s, expected java.lang.String",
                         messageType.getCanonicalName()));
         @SuppressWarnings("unchecked")
-        final T result = (T) new String(message.body(), message.encoding() != null ?
+        final T result = (T) new String(message.bodyArray(), message.bodyOffset(), message.bodyLength(),
+                message.encoding() != null ?
                 Charset.forName(message.encoding()) : charset);
         return result;
     }
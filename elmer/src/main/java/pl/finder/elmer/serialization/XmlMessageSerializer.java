@@ -3,9 +3,9 @@ package pl.finder.elmer.serialization;
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ExecutionException;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -14,28 +14,32 @@ import javax.xml.bind.Unmarshaller;
 import javax.xml.transform.Source;
 import javax.xml.transform.stream.StreamSource;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
 
 @NoArgsConstructor(access = AccessLevel.PACKAGE, staticName = "create")
 final class XmlMessageSerializer implements MessageSerializer {
+    private static final LoadingCache<Class<?>, JAXBContext> Contexts = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(createContext());
 
     @Override
     public Message serialize(final Object message) {
-        try (final ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-            final JAXBContext context = JAXBContext.newInstance(message.getClass());
+        try (final SerializationBuffers.Buffer output = SerializationBuffers.acquire(message.getClass())) {
+            final JAXBContext context = contextOf(message.getClass());
             final Marshaller marshaller = context.createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, false);
             marshaller.marshal(message, output);
-            return Message.builder()
-                    .body(output.toByteArray())
+            return output.messageBuilder()
                     .type(message.getClass().getCanonicalName())
                     .contentType(MessageContentType.XML.value())
                     .build();
         } catch (final JAXBException e) {
             throw new IllegalStateException("Could not serialize message to XML", e);
-        } catch (final IOException e) {
-            throw new IllegalStateException("Error while writting message to XML", e);
         }
     }
 
@@ -54,7 +58,7 @@ final class XmlMessageSerializer implements MessageSerializer {
 
     private static <T> T doDeserialize(final Message message, final Class<?> messageType) {
         try (final InputStream input = message.openStream()) {
-            final JAXBContext context = JAXBContext.newInstance(messageType);
+            final JAXBContext context = contextOf(messageType);
             final Unmarshaller unmarshaller = context.createUnmarshaller();
             final Source source = new StreamSource(input);
             @SuppressWarnings("unchecked")
@@ -68,4 +72,24 @@ final class XmlMessageSerializer implements MessageSerializer {
         }
     }
 
+    private static JAXBContext contextOf(final Class<?> messageType) throws JAXBException {
+        try {
+            return Contexts.get(messageType);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof JAXBException) {
+                throw (JAXBException) e.getCause();
+            }
+            throw new IllegalStateException(String.format("Could not create JAXBContext for: '%s'",
+                    messageType.getCanonicalName()), e.getCause());
+        }
+    }
+
+    private static CacheLoader<Class<?>, JAXBContext> createContext() {
+        return new CacheLoader<Class<?>, JAXBContext>() {
+            @Override
+            public JAXBContext load(final Class<?> messageType) throws Exception {
+                return JAXBContext.newInstance(messageType);
+            }
+        };
+    }
 }
@@ -0,0 +1,125 @@
+package pl.finder.elmer.subscription;
+
+import static com.google.common.base.Preconditions.checkState;
+import static pl.finder.elmer.commons.Durations.isGreaterThan;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Options of adaptive consumption concurrency. Every adjustInterval number of consumption threads is:
+ * decreased multiplicatively when average handler latency exceeds baseline latency by latencyTolerance,
+ * increased by one when deliveries wait in dispatch buffer or in broker queue,
+ * decreased by one when both are empty.
+ * Prefetch count follows number of threads linearly between its bounds.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode
+@ToString
+@Getter
+@Accessors(fluent = true)
+public final class AdaptiveConcurrencyOptions {
+    private static final AdaptiveConcurrencyOptions Defaults = builder().build();
+
+    private final int minThreads;
+
+    private final int maxThreads;
+
+    private final int minPrefetch;
+
+    private final int maxPrefetch;
+    /**
+     * Interval between adjustments, broker queue depth is checked with passive queue declare once per interval.
+     */
+    private final Duration adjustInterval;
+    /**
+     * Ratio of average to baseline handler latency above which number of threads is decreased.
+     */
+    private final double latencyTolerance;
+    /**
+     * Ratio by which number of threads is multiplied when it is decreased because of latency.
+     */
+    private final double backoffRatio;
+    /**
+     * Listener notified about each change of number of threads or prefetch count.
+     */
+    private final Consumer<ConcurrencyAdjustment> listener;
+
+    public static AdaptiveConcurrencyOptions.Builder builder() {
+        return new Builder();
+    }
+
+    public static AdaptiveConcurrencyOptions defaults() {
+        return Defaults;
+    }
+
+    public AdaptiveConcurrencyOptions.Builder with() {
+        return builder()
+                .minThreads(minThreads)
+                .maxThreads(maxThreads)
+                .minPrefetch(minPrefetch)
+                .maxPrefetch(maxPrefetch)
+                .adjustInterval(adjustInterval)
+                .latencyTolerance(latencyTolerance)
+                .backoffRatio(backoffRatio)
+                .listener(listener);
+    }
+
+    /**
+     * Returns prefetch count matching number of threads.
+     *
+     * @param threads number of threads
+     * @return prefetch count
+     */
+    public int prefetchFor(final int threads) {
+        if (maxThreads == minThreads) {
+            return maxPrefetch;
+        }
+        return minPrefetch + (int) ((long) (maxPrefetch - minPrefetch) * (threads - minThreads)
+                / (maxThreads - minThreads));
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PRIVATE)
+    @Setter
+    public static final class Builder {
+        private static final Consumer<ConcurrencyAdjustment> NoListener = adjustment -> {
+        };
+
+        private int minThreads = 1;
+        private int maxThreads = 16;
+        private int minPrefetch = 16;
+        private int maxPrefetch = 512;
+        private Duration adjustInterval = Duration.ofSeconds(1);
+        private double latencyTolerance = 2.0;
+        private double backoffRatio = 0.75;
+        private Consumer<ConcurrencyAdjustment> listener = NoListener;
+
+        public AdaptiveConcurrencyOptions build() {
+            checkState(minThreads > 0, String.format("Invalid minThreads: %d, expected > 0", minThreads));
+            checkState(maxThreads >= minThreads,
+                    String.format("Invalid maxThreads: %d, expected >= minThreads: %d", maxThreads, minThreads));
+            checkState(minPrefetch > 0 && minPrefetch <= 65535,
+                    String.format("Invalid minPrefetch: %d, expected <1 - 65535>", minPrefetch));
+            checkState(maxPrefetch >= minPrefetch && maxPrefetch <= 65535,
+                    String.format("Invalid maxPrefetch: %d, expected <minPrefetch: %d - 65535>",
+                            maxPrefetch, minPrefetch));
+            checkState(adjustInterval != null && isGreaterThan(adjustInterval, Duration.ZERO),
+                    String.format("Invalid adjustInterval: %s, expected > 0", adjustInterval));
+            checkState(latencyTolerance > 1.0,
+                    String.format("Invalid latencyTolerance: %f, expected > 1", latencyTolerance));
+            checkState(backoffRatio > 0.0 && backoffRatio < 1.0,
+                    String.format("Invalid backoffRatio: %f, expected <0 - 1>", backoffRatio));
+            return new AdaptiveConcurrencyOptions(minThreads, maxThreads, minPrefetch, maxPrefetch, adjustInterval,
+                    latencyTolerance, backoffRatio, listener != null ? listener : NoListener);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package pl.finder.elmer.subscription;
+
+import static com.google.common.base.Preconditions.checkState;
+import static pl.finder.elmer.commons.Durations.isGreaterThan;
+
+import java.time.Duration;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Options of collecting deliveries into batches.
+ */
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+@EqualsAndHashCode
+@ToString
+@Getter
+@Accessors(fluent = true)
+public final class BatchSubscribeOptions {
+    private static final BatchSubscribeOptions Defaults = builder().build();
+
+    /**
+     * Maximum number of messages in batch.
+     */
+    private final int maxBatchSize;
+    /**
+     * Maximum time for which first message of batch waits for batch to fill up.
+     */
+    private final Duration maxWaitTime;
+
+    public static BatchSubscribeOptions.Builder builder() {
+        return new Builder();
+    }
+
+    public static BatchSubscribeOptions defaults() {
+        return Defaults;
+    }
+
+    public BatchSubscribeOptions.Builder with() {
+        return builder()
+                .maxBatchSize(maxBatchSize)
+                .maxWaitTime(maxWaitTime);
+    }
+
+    @NoArgsConstructor(access = AccessLevel.PRIVATE)
+    @Setter
+    public static final class Builder {
+        private int maxBatchSize = 100;
+        private Duration maxWaitTime = Duration.ofMillis(100);
+
+        public BatchSubscribeOptions build() {
+            checkState(maxBatchSize > 0, String.format("Invalid maxBatchSize: %d, expected > 0", maxBatchSize));
+            checkState(maxWaitTime != null && isGreaterThan(maxWaitTime, Duration.ZERO),
+                    String.format("Invalid maxWaitTime: %s, expected > 0", maxWaitTime));
+            return new BatchSubscribeOptions(maxBatchSize, maxWaitTime);
+        }
+    }
+}
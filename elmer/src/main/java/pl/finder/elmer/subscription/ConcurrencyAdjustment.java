@@ -0,0 +1,56 @@
+package pl.finder.elmer.subscription;
+
+import java.time.Duration;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Change of subscription concurrency made by adaptive concurrency, with measurements it was based on.
+ */
+@AllArgsConstructor(access = AccessLevel.PUBLIC, staticName = "of")
+@Getter
+@Accessors(fluent = true)
+@ToString
+public final class ConcurrencyAdjustment {
+    private final String queue;
+    private final Reason reason;
+    private final int previousThreads;
+    private final int threads;
+    private final int previousPrefetch;
+    private final int prefetch;
+    /**
+     * Average handler latency in last interval, zero when no message has been handled.
+     */
+    private final Duration averageLatency;
+    /**
+     * Baseline handler latency, latency observed when handlers are not overloaded.
+     */
+    private final Duration baselineLatency;
+    /**
+     * Number of deliveries waiting in dispatch buffer.
+     */
+    private final int dispatchQueueDepth;
+    /**
+     * Number of messages ready in broker queue, -1 when it could not be checked.
+     */
+    private final long backlog;
+
+    public static enum Reason {
+        /**
+         * Deliveries wait in dispatch buffer or broker queue.
+         */
+        Backlog,
+        /**
+         * Handler latency increased above tolerance.
+         */
+        LatencyIncrease,
+        /**
+         * Dispatch buffer and broker queue are empty.
+         */
+        Idle
+    }
+}
@@ -0,0 +1,41 @@
+package pl.finder.elmer.subscription;
+
+import java.time.Duration;
+
+/**
+ * Configurator of message consumption of the bus.
+ */
+public interface ConsumptionConfigurator {
+
+    /**
+     * Sets number of threads of work stealing pool shared by subscriptions using platform threads.
+     * Subscriptions get pool threads in proportion to their scheduling weights, each subscription is limited
+     * to its concurrentThreadsLimit. Pool is shut down when the bus is closed.
+     *
+     * @param threads number of threads, twice the number of processors by default
+     * @return self
+     */
+    ConsumptionConfigurator withThreads(int threads);
+
+    /**
+     * Sets maximum number of consumers sharing single channel. Shared channels are pooled across pooled
+     * connections, consumers on shared channels acknowledge deliveries individually. When shared channel is closed
+     * by channel error, its consumers are moved to other channels. Subscriptions with automatic acknowledging,
+     * which are not bounded by prefetch, subscriptions with adaptive concurrency, which changes channel wide
+     * prefetch, and subscriptions coalescing acknowledgements, including batch subscriptions, whose multiple acks
+     * would settle deliveries of other consumers, always use dedicated channels.
+     *
+     * @param consumersPerChannel number of consumers, 1 by default - each subscription has its own channel
+     * @return self
+     */
+    ConsumptionConfigurator withConsumersPerChannel(int consumersPerChannel);
+
+    /**
+     * Sets maximum time for which closed subscription waits for deliveries dispatched before its consumer
+     * has been cancelled. Bus drains all its subscriptions in parallel when closed.
+     *
+     * @param drainTimeout drain timeout, 30 seconds by default
+     * @return self
+     */
+    ConsumptionConfigurator withDrainTimeout(Duration drainTimeout);
+}
@@ -1,6 +1,10 @@
 package pl.finder.elmer.subscription;
 
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import lombok.AccessLevel;
 import lombok.RequiredArgsConstructor;
@@ -17,6 +21,15 @@ final class DefaultSubscriptionCreator implements QueueSubscriptionCreator, Subs
     private boolean exclusive;
     private boolean noLocal;
     private String consumerTag;
+    private Integer prefetchCount;
+    private int prefetchSize;
+    private int concurrentThreadsLimit = 1;
+    private int schedulingWeight = 1;
+    private Function<MessageContext<?>, ?> partitionKey;
+    private boolean lazyDeserialization;
+    private Predicate<DeliveryMetadata> filter;
+    private FilteredDeliveryAction filteredAction = FilteredDeliveryAction.Ack;
+    private AdaptiveConcurrencyOptions adaptiveConcurrency;
 
     @Override
     public SubscriptionCreator withAutoAck(final boolean enabled) {
@@ -42,6 +55,51 @@ final class DefaultSubscriptionCreator implements QueueSubscriptionCreator, Subs
         return this;
     }
 
+    @Override
+    public SubscriptionCreator withPrefetch(final int count, final int size) {
+        prefetchCount = count;
+        prefetchSize = size;
+        return this;
+    }
+
+    @Override
+    public SubscriptionCreator withConcurrentThreadsLimit(final int limit) {
+        concurrentThreadsLimit = limit;
+        return this;
+    }
+
+    @Override
+    public SubscriptionCreator withSchedulingWeight(final int weight) {
+        schedulingWeight = weight;
+        return this;
+    }
+
+    @Override
+    public SubscriptionCreator withLazyDeserialization(final boolean enabled) {
+        lazyDeserialization = enabled;
+        return this;
+    }
+
+    @Override
+    public SubscriptionCreator withFilter(final Predicate<DeliveryMetadata> filter,
+            final FilteredDeliveryAction filteredAction) {
+        this.filter = filter;
+        this.filteredAction = filteredAction;
+        return this;
+    }
+
+    @Override
+    public SubscriptionCreator withAdaptiveConcurrency(final AdaptiveConcurrencyOptions adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+        return this;
+    }
+
+    @Override
+    public SubscriptionCreator partitionedBy(final Function<MessageContext<?>, ?> partitionKey) {
+        this.partitionKey = partitionKey;
+        return this;
+    }
+
     @Override
     public SubscriptionCreator toQueue(final String queue) {
         this.queue = queue;
@@ -60,14 +118,41 @@ final class DefaultSubscriptionCreator implements QueueSubscriptionCreator, Subs
         return subscriptionManager.subscribe(options, consumer);
     }
 
+    @Override
+    public <T> Subscription createBatch(final Class<T> messageType, final BatchSubscribeOptions batchOptions,
+            final Consumer<List<MessageContext<T>>> consumer) {
+        final SubscribeOptions<T> options = createOptions(messageType);
+        return subscriptionManager.subscribeBatch(options, batchOptions, consumer);
+    }
+
+    @Override
+    public <T> Subscription createAsync(final Class<T> messageType, final int maxInFlight,
+            final Function<MessageContext<T>, CompletionStage<?>> handler) {
+        final SubscribeOptions<T> options = createOptions(messageType);
+        return subscriptionManager.subscribeAsync(options, maxInFlight, handler);
+    }
+
     private <T> SubscribeOptions<T> createOptions(final Class<T> messageType) {
-        return SubscribeOptions.<T> builder()
+        final SubscribeOptions.Builder<T> builder = SubscribeOptions.<T> builder()
                 .messageType(messageType)
                 .autoAckEnabled(autoAckEnabled)
                 .queue(queue)
                 .exclusive(exclusive)
                 .noLocal(noLocal)
                 .consumerTag(consumerTag)
-                .build();
+                .prefetchSize(prefetchSize)
+                .concurrentThreadsLimit(concurrentThreadsLimit)
+                .schedulingWeight(schedulingWeight)
+                .lazyDeserialization(lazyDeserialization)
+                .filter(filter)
+                .filteredDeliveryAction(filteredAction)
+                .adaptiveConcurrency(adaptiveConcurrency);
+        if (partitionKey != null) {
+            builder.partitionKey(message -> partitionKey.apply(message));
+        }
+        if (prefetchCount != null) {
+            builder.prefetchCount(prefetchCount);
+        }
+        return builder.build();
     }
 }
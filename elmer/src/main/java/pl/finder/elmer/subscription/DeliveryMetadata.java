@@ -0,0 +1,44 @@
+package pl.finder.elmer.subscription;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.rabbitmq.client.BasicProperties;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.experimental.Accessors;
+
+/**
+ * Delivery data available before message body is deserialized.
+ */
+@AllArgsConstructor(access = AccessLevel.PUBLIC, staticName = "of")
+@Getter
+@Accessors(fluent = true)
+@ToString
+public final class DeliveryMetadata {
+    private final String exchange;
+    private final String routingKey;
+    private final boolean redelivered;
+    private final BasicProperties properties;
+
+    public Map<String, Object> headers() {
+        final Map<String, Object> headers = properties.getHeaders();
+        return headers != null ? headers : ImmutableMap.of();
+    }
+
+    public Object header(final String name) {
+        return headers().get(name);
+    }
+
+    public String headerAsString(final String name) {
+        final Object value = header(name);
+        return value != null ? value.toString() : null;
+    }
+
+    public String messageType() {
+        return properties.getType();
+    }
+}
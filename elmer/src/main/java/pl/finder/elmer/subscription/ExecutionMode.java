@@ -0,0 +1,18 @@
+package pl.finder.elmer.subscription;
+
+/**
+ * Threads on which subscription deliveries are handled.
+ */
+public enum ExecutionMode {
+
+    /**
+     * Deliveries are handled by fixed pool of concurrentThreadsLimit platform threads.
+     */
+    PlatformThreads,
+
+    /**
+     * Each delivery is handled on its own virtual thread, at most concurrentThreadsLimit at once.
+     * Falls back to cached pool of platform threads when virtual threads are not available (before Java 21).
+     */
+    VirtualThreads
+}
@@ -0,0 +1,17 @@
+package pl.finder.elmer.subscription;
+
+/**
+ * Settlement of delivery rejected by subscription filter.
+ */
+public enum FilteredDeliveryAction {
+
+    /**
+     * Delivery is acknowledged and dropped.
+     */
+    Ack,
+
+    /**
+     * Delivery is rejected without requeue, so it is dead-lettered when queue has dead letter exchange.
+     */
+    Reject
+}
@@ -2,8 +2,12 @@ package pl.finder.elmer.subscription;
 
 import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.base.Strings.isNullOrEmpty;
+import static pl.finder.elmer.commons.Durations.isGreaterThan;
 
+import java.time.Duration;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
@@ -14,6 +18,8 @@ import lombok.Setter;
 import lombok.ToString;
 import lombok.experimental.Accessors;
 import lombok.extern.slf4j.Slf4j;
+import pl.finder.elmer.core.MessageContext;
+import pl.finder.elmer.serialization.MessageCompression;
 
 /**
  * Options for created subscription.
@@ -44,6 +50,69 @@ public final class SubscribeOptions<T> {
     private final String consumerTag;
 
     private final int concurrentThreadsLimit;
+    /**
+     * Threads on which deliveries are handled.
+     */
+    private final ExecutionMode executionMode;
+    /**
+     * Share of consumption threads given to subscription when threads are contended by many subscriptions,
+     * relative to other subscriptions.
+     */
+    private final int schedulingWeight;
+    /**
+     * Maximum number of unacknowledged deliveries sent by broker (basic.qos), 0 (default) - unlimited.
+     * Broker applies prefetch only when automatic acknowledging is disabled, then it also bounds dispatch buffer
+     * of subscription. Dispatch buffer of subscription with automatic acknowledging is unbounded, so memory
+     * of consumer is bounded only when automatic acknowledging is disabled.
+     */
+    private final int prefetchCount;
+    /**
+     * Maximum size in bytes of unacknowledged deliveries sent by broker (basic.qos), 0 - unlimited.
+     * Not supported by RabbitMQ, which accepts only 0.
+     */
+    private final int prefetchSize;
+    /**
+     * Number of acknowledged deliveries sent to broker with single ack, 1 (default) - each delivery acked
+     * separately when it is acknowledged. Greater values enable coalescing of acks, which are then held
+     * for up to ackFlushInterval and lost when consumer crashes, so their deliveries are redelivered.
+     * Limited to half of prefetchCount, so broker does not wait for acks held by consumer.
+     */
+    private final int ackBatchSize;
+    /**
+     * Maximum time for which acknowledgements are held before being sent to broker, used only when
+     * ackBatchSize is greater than 1.
+     */
+    private final Duration ackFlushInterval;
+    /**
+     * Key of message partition, e.g. routing key, header or function of body. Messages with equal keys are
+     * handled one at a time in order of delivery, on one of concurrentThreadsLimit lanes.
+     * When null messages are handled in any order.
+     */
+    private final Function<MessageContext<T>, ?> partitionKey;
+    /**
+     * Is message body deserialized on first access instead of before handler is called.
+     * Deserialization errors are then thrown from MessageContext.body().
+     */
+    private final boolean lazyDeserialization;
+    /**
+     * Maximum size in bytes of decompressed message body, larger bodies are reported as consume errors.
+     */
+    private final int maxDecompressedSize;
+    /**
+     * Filter of deliveries evaluated on connection thread before body is deserialized, null - all deliveries
+     * are handled. Filtered out deliveries are settled with filteredDeliveryAction and never reach handler.
+     */
+    private final Predicate<DeliveryMetadata> filter;
+    /**
+     * Settlement of deliveries rejected by filter, ignored when automatic acknowledging is enabled.
+     */
+    private final FilteredDeliveryAction filteredDeliveryAction;
+    /**
+     * Adaptive concurrency, null - number of threads and prefetch count are fixed.
+     * When set concurrentThreadsLimit and prefetchCount are ignored, subscription starts with minimal number
+     * of threads and prefetch count which are adjusted within bounds of adaptive concurrency.
+     */
+    private final AdaptiveConcurrencyOptions adaptiveConcurrency;
 
     private final BiConsumer<SubscribeOptions<?>, Exception> errorHandler;
 
@@ -65,9 +134,31 @@ public final class SubscribeOptions<T> {
                 .exclusive(exclusive)
                 .consumerTag(consumerTag)
                 .concurrentThreadsLimit(concurrentThreadsLimit)
+                .executionMode(executionMode)
+                .schedulingWeight(schedulingWeight)
+                .prefetchCount(prefetchCount)
+                .prefetchSize(prefetchSize)
+                .ackBatchSize(ackBatchSize)
+                .ackFlushInterval(ackFlushInterval)
+                .partitionKey(partitionKey)
+                .lazyDeserialization(lazyDeserialization)
+                .maxDecompressedSize(maxDecompressedSize)
+                .filter(filter)
+                .filteredDeliveryAction(filteredDeliveryAction)
+                .adaptiveConcurrency(adaptiveConcurrency)
                 .errorHandler(errorHandler);
     }
 
+    /**
+     * Returns number of acknowledged deliveries sent with single ack, limited by (minimal) prefetch count.
+     *
+     * @return effective ack batch size
+     */
+    public int effectiveAckBatchSize() {
+        final int prefetch = adaptiveConcurrency != null ? adaptiveConcurrency.minPrefetch() : prefetchCount;
+        return prefetch > 0 ? Math.min(ackBatchSize, Math.max(1, prefetch / 2)) : ackBatchSize;
+    }
+
     public void onError(final Exception e) {
         errorHandler.accept(this, e);
     }
@@ -77,6 +168,7 @@ public final class SubscribeOptions<T> {
     @Setter
     public static final class Builder<T> {
         private static final BiConsumer<SubscribeOptions<?>, Exception> DefaltErrorHandler = ErrorHandler.create();
+        private static final int MaxSchedulingWeight = 1024;
 
         private Class<T> messageType;
         /**
@@ -103,6 +195,30 @@ public final class SubscribeOptions<T> {
 
         private int concurrentThreadsLimit = 1;
 
+        private ExecutionMode executionMode = ExecutionMode.PlatformThreads;
+
+        private int schedulingWeight = 1;
+
+        private int prefetchCount = 0;
+
+        private int prefetchSize = 0;
+
+        private int ackBatchSize = 1;
+
+        private Duration ackFlushInterval = Duration.ofMillis(50);
+
+        private Function<MessageContext<T>, ?> partitionKey;
+
+        private boolean lazyDeserialization = false;
+
+        private int maxDecompressedSize = MessageCompression.DefaultMaxDecompressedSize;
+
+        private Predicate<DeliveryMetadata> filter;
+
+        private FilteredDeliveryAction filteredDeliveryAction = FilteredDeliveryAction.Ack;
+
+        private AdaptiveConcurrencyOptions adaptiveConcurrency;
+
         private BiConsumer<SubscribeOptions<?>, Exception> errorHandler = DefaltErrorHandler;
         /**
          * Builds SubscribeOptions.
@@ -113,8 +229,27 @@ public final class SubscribeOptions<T> {
             checkState(!isNullOrEmpty(queue), "Queue name was not specfied");
             checkState(concurrentThreadsLimit > 0,
                     String.format("Invalid concurrentThreadsLimit: %d, expected > 0", concurrentThreadsLimit));
+            checkState(executionMode != null, "Execution mode not specified");
+            checkState(schedulingWeight > 0 && schedulingWeight <= MaxSchedulingWeight,
+                    String.format("Invalid schedulingWeight: %d, expected <1 - %d>", schedulingWeight,
+                            MaxSchedulingWeight));
+            checkState(filteredDeliveryAction != null, "Filtered delivery action not specified");
+            checkState(prefetchCount >= 0 && prefetchCount <= 65535,
+                    String.format("Invalid prefetchCount: %d, expected <0 - 65535>", prefetchCount));
+            checkState(prefetchSize >= 0, String.format("Invalid prefetchSize: %d, expected >= 0", prefetchSize));
+            checkState(ackBatchSize > 0, String.format("Invalid ackBatchSize: %d, expected > 0", ackBatchSize));
+            checkState(maxDecompressedSize > 0 && maxDecompressedSize < Integer.MAX_VALUE,
+                    String.format("Invalid maxDecompressedSize: %d, expected <1 - %d>", maxDecompressedSize,
+                            Integer.MAX_VALUE - 1));
+            checkState(adaptiveConcurrency == null || partitionKey == null,
+                    "Adaptive concurrency cannot be used with partitionKey");
+            checkState(ackFlushInterval != null && isGreaterThan(ackFlushInterval, Duration.ZERO),
+                    String.format("Invalid ackFlushInterval: %s, expected > 0", ackFlushInterval));
             return new SubscribeOptions<>(messageType, queue, autoAckEnabled, noLocal,
-                    exclusive, consumerTag, concurrentThreadsLimit,
+                    exclusive, consumerTag, concurrentThreadsLimit, executionMode, schedulingWeight,
+                    prefetchCount, prefetchSize,
+                    ackBatchSize, ackFlushInterval, partitionKey, lazyDeserialization, maxDecompressedSize,
+                    filter, filteredDeliveryAction, adaptiveConcurrency,
                     errorHandler != null ? errorHandler : DefaltErrorHandler);
         }
     }
@@ -1,9 +1,23 @@
 package pl.finder.elmer.subscription;
 
+import java.time.Duration;
+
 public interface Subscription extends AutoCloseable {
 
     String consumerTag();
 
+    /**
+     * Drains and closes subscription within drain timeout configured for the bus.
+     */
     @Override
     void close();
+
+    /**
+     * Drains and closes subscription: consumer is cancelled, deliveries already dispatched are handled
+     * and their acknowledgements sent before channel is closed. Deliveries not handled within timeout
+     * are redelivered by broker.
+     *
+     * @param drainTimeout maximum time of waiting for dispatched deliveries
+     */
+    void close(Duration drainTimeout);
 }
@@ -1,15 +1,51 @@
 package pl.finder.elmer.subscription;
 
+import java.util.List;
+import java.util.concurrent.CompletionStage;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 
 import pl.finder.elmer.core.AMQPException;
 import pl.finder.elmer.core.MessageContext;
 
 public interface SubscriptionManager {
+    int DefaultMaxInFlightStages = 1024;
 
     <T> Subscription subscribe(SubscribeOptions<T> options, Consumer<MessageContext<T>> consumer)
             throws AMQPException;
 
+    /**
+     * Subscribes consumer of message batches. Batch is acknowledged once consumer returns.
+     *
+     * @param options subscription options, prefetchCount should be 0 or at least maxBatchSize
+     * @param batchOptions batching options
+     * @param consumer batch consumer
+     * @return subscription
+     * @throws AMQPException when subscription could not be created
+     */
+    <T> Subscription subscribeBatch(SubscribeOptions<T> options, BatchSubscribeOptions batchOptions,
+            Consumer<List<MessageContext<T>>> consumer) throws AMQPException;
+
+    /**
+     * Subscribes asynchronous handler. Message is acknowledged when stage returned by handler completes normally
+     * and rejected when it completes exceptionally, unless handler has settled it. Handler should not block,
+     * so few consumption threads can keep many messages in flight.
+     *
+     * @param options subscription options, prefetchCount limits in flight messages as well
+     * @param maxInFlight maximum number of incomplete stages, when reached consumption waits for completion
+     * @param handler asynchronous message handler
+     * @return subscription
+     * @throws AMQPException when subscription could not be created
+     */
+    <T> Subscription subscribeAsync(SubscribeOptions<T> options, int maxInFlight,
+            Function<MessageContext<T>, CompletionStage<?>> handler) throws AMQPException;
+
+    default <T> Subscription subscribeAsync(final SubscribeOptions<T> options,
+            final Function<MessageContext<T>, CompletionStage<?>> handler) throws AMQPException {
+        return subscribeAsync(options, DefaultMaxInFlightStages, handler);
+    }
+
     default QueueSubscriptionCreator subscribe() {
         return new DefaultSubscriptionCreator(this);
     }
@@ -27,12 +63,37 @@ public interface SubscriptionManager {
 
         SubscriptionCreator noLocal(final boolean enabled);
 
+        SubscriptionCreator withPrefetch(int count, int size);
+
+        SubscriptionCreator withConcurrentThreadsLimit(int limit);
+
+        SubscriptionCreator withLazyDeserialization(boolean enabled);
+
+        SubscriptionCreator withSchedulingWeight(int weight);
+
+        SubscriptionCreator withFilter(Predicate<DeliveryMetadata> filter, FilteredDeliveryAction filteredAction);
+
+        SubscriptionCreator withAdaptiveConcurrency(AdaptiveConcurrencyOptions adaptiveConcurrency);
+
+        SubscriptionCreator partitionedBy(Function<MessageContext<?>, ?> partitionKey);
+
         Subscription create(Consumer<MessageContext<byte[]>> consumer)
                 throws AMQPException;
 
         <T> Subscription create(Class<T> messageType, Consumer<MessageContext<T>> consumer)
                 throws AMQPException;
 
+        <T> Subscription createBatch(Class<T> messageType, BatchSubscribeOptions batchOptions,
+                Consumer<List<MessageContext<T>>> consumer) throws AMQPException;
+
+        <T> Subscription createAsync(Class<T> messageType, int maxInFlight,
+                Function<MessageContext<T>, CompletionStage<?>> handler) throws AMQPException;
+
+        default <T> Subscription createAsync(final Class<T> messageType,
+                final Function<MessageContext<T>, CompletionStage<?>> handler) throws AMQPException {
+            return createAsync(messageType, DefaultMaxInFlightStages, handler);
+        }
+
         default SubscriptionCreator withAutoAckEnabled() {
             return withAutoAck(true);
         }
@@ -41,6 +102,30 @@ public interface SubscriptionManager {
             return withAutoAck(false);
         }
 
+        default SubscriptionCreator withPrefetch(final int count) {
+            return withPrefetch(count, 0);
+        }
+
+        default SubscriptionCreator withUnlimitedPrefetch() {
+            return withPrefetch(0, 0);
+        }
+
+        default SubscriptionCreator withFilter(final Predicate<DeliveryMetadata> filter) {
+            return withFilter(filter, FilteredDeliveryAction.Ack);
+        }
+
+        default SubscriptionCreator withAdaptiveConcurrency() {
+            return withAdaptiveConcurrency(AdaptiveConcurrencyOptions.defaults());
+        }
+
+        default SubscriptionCreator withLazyDeserialization() {
+            return withLazyDeserialization(true);
+        }
+
+        default SubscriptionCreator partitionedByRoutingKey() {
+            return partitionedBy(MessageContext::routingKey);
+        }
+
         default SubscriptionCreator exclusive() {
             return exclusive(true);
         }